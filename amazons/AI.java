@@ -1,18 +1,17 @@
 package amazons;
 
-import static amazons.Piece.*;
-import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** A Player that automatically generates moves.
  *  @author William Tai
  */
 class AI extends Player {
 
-    /** A position magnitude indicating a win (for white if positive, black
-     *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
-    /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    /** The deepest iteration attempted by a timed search. */
+    static final int MAX_DEPTH = 64;
+
+    /** Default number of transposition-table entries (16 bytes each). */
+    static final int DEFAULT_TABLE_SIZE = 1 << 20;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -25,129 +24,483 @@ class AI extends Player {
         super(piece, controller);
     }
 
+    /** A new AI playing PIECE under control of CONTROLLER, with the same
+     *  settings as TEMPLATE. */
+    private AI(AI template, Piece piece, Controller controller) {
+        this(piece, controller);
+        _tableSize = template._tableSize;
+        _sharedTable = template._sharedTable;
+        _table = _sharedTable;
+        _threads = template._threads;
+        _rootSplit = template._rootSplit;
+        _moveOrdering = template._moveOrdering;
+        _splitPlies = template._splitPlies;
+        _beamWidths = template._beamWidths;
+        _regions = template._regions;
+        _book = template._book;
+        _tablebase = template._tablebase;
+        _filler.setTablebase(_tablebase);
+        _pondering = template._pondering;
+        _evaluator = template._evaluator;
+    }
+
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(this, piece, controller);
+    }
+
+    /** Use a transposition table of about ENTRIES entries in AIs created
+     *  from me, or none if ENTRIES is 0. */
+    void setTableSize(int entries) {
+        _tableSize = entries;
+        _table = _sharedTable = null;
+        discardSearchers();
+    }
+
+    /** Use TABLE (typically a MappedTranspositionTable) as the
+     *  transposition table of AIs created from me and of my own
+     *  searches, all sharing it, in place of tables of their own. */
+    void setSharedTable(TranspositionTable table) {
+        _table = _sharedTable = table;
+        resetTable();
+        discardSearchers();
+    }
+
+    /** Search with THREADS threads (at least 1) in AIs created from me
+     *  and in my own searches. */
+    void setThreads(int threads) {
+        _threads = Math.max(1, threads);
+        discardSearchers();
+    }
+
+    /** Iff ROOTSPLIT, search by scoring root moves in parallel (see
+     *  RootSplitSearch) rather than with lazy SMP, in AIs created from
+     *  me and in my own searches. */
+    void setRootSplit(boolean rootSplit) {
+        _rootSplit = rootSplit;
+        discardSearchers();
+    }
+
+    /** Iff ORDERING, order moves by killers and history (the default);
+     *  otherwise try them in generation order after the hash move.  For
+     *  comparisons. */
+    void setMoveOrdering(boolean ordering) {
+        _moveOrdering = ordering;
+        discardSearchers();
+    }
+
+    /** Iff SPLIT, search amazon moves and spear throws as separate
+     *  plies (see Searcher.setSplitPlies), in AIs created from me and in
+     *  my own searches.  Clears my transposition table, whose depths
+     *  would otherwise be in the wrong units. */
+    void setSplitPlies(boolean split) {
+        _splitPlies = split;
+        resetTable();
+        discardSearchers();
+    }
+
+    /** Search selectively, keeping only the WIDTHS[p] most promising
+     *  moves at ply p (see Searcher.setBeamWidths), in AIs created from
+     *  me and in my own searches.  With no WIDTHS, search full width
+     *  (the default). */
+    void setBeamWidths(int... widths) {
+        _beamWidths = widths.clone();
+        discardSearchers();
+    }
+
+    /** Iff REGIONS, score settled positions by territory and search
+     *  only contested regions (see Searcher.setRegions), in AIs created
+     *  from me and in my own searches.  On by default.  Clears my
+     *  transposition table, whose entries depend on this setting. */
+    void setRegions(boolean regions) {
+        _regions = regions;
+        resetTable();
+        discardSearchers();
+    }
+
+    /** Play the moves of BOOK (none if null) when it has one for the
+     *  position, without searching, in AIs created from me and in my
+     *  own games. */
+    void setOpeningBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Look up the values of small regions in the filling phase and in
+     *  settled positions in TABLEBASE (none if null), in AIs created
+     *  from me and in my own searches. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+        _filler.setTablebase(tablebase);
+        discardSearchers();
+    }
+
+    /** Iff PONDERING, have AIs created from me keep searching while a
+     *  manual opponent chooses its move (see startPondering). */
+    void setPondering(boolean pondering) {
+        _pondering = pondering;
+    }
+
+    /** Evaluate positions with evaluators made from TEMPLATE, in AIs
+     *  created from me and in my own searches.  Clears my transposition
+     *  table, whose entries hold scores from the old evaluator. */
+    void setEvaluator(Evaluator template) {
+        _evaluator = template;
+        resetTable();
+        discardSearchers();
+    }
+
+    /** Clear my transposition table (if any), whose entries no longer
+     *  fit my settings, and have it file new entries under a salt (see
+     *  TranspositionTable.setSalt) made from the settings that affect
+     *  them.  A table that keeps its entries when cleared, such as a
+     *  MappedTranspositionTable, then holds the results of each
+     *  combination of settings apart. */
+    private void resetTable() {
+        if (_table != null) {
+            _table.clear();
+            _table.setSalt(tableSalt());
+        }
+    }
+
+    /** Return the salt for transposition-table keys under my current
+     *  settings: the same in every process for the same settings. */
+    private long tableSalt() {
+        long salt = _evaluator.name().hashCode();
+        salt = salt * 2 + (_splitPlies ? 1 : 0);
+        salt = salt * 2 + (_regions ? 1 : 0);
+        return salt * SALT_MULTIPLIER;
+    }
+
+    /** Discard my searchers and their threads, so that the next search
+     *  creates them afresh with my current settings. */
+    private void discardSearchers() {
+        _searchers = null;
+        if (_rootSearch != null) {
+            _rootSearch.shutdown();
+            _rootSearch = null;
+        }
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        int move = findMove();
         _controller.reportMove(move);
-        return move.toString();
+        if (_pondering && _controller.player(_myPiece.opponent()).isManual()) {
+            startPondering(move);
+        }
+        return Move.format(move);
+    }
+
+    @Override
+    void finish() {
+        stopPondering(0, System.nanoTime());
+        if (_ponders > 0) {
+            _controller.reportNote("Ponder hits: %d of %d (%d%%).",
+                                   _ponderHits, _ponders,
+                                   100 * _ponderHits / _ponders);
+            _ponders = _ponderHits = 0;
+        }
     }
 
     /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
+     *  is a move, as a packed move (see Move.pack).  A move from my
+     *  opening book comes first.  Once no region is contested (and I
+     *  use regions), the game is one of filling in territory, and the
+     *  move comes from my FillingSolver without a search.  Otherwise,
+     *  the move is that of my ponder search, if it searched this
+     *  position, or else that of a new search. */
+    private int findMove() {
         Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-        if (sense == 1) {
-            int sub = alpha;
-            Iterator<Move> moves = board.legalMoves(WHITE);
-            while (moves.hasNext()) {
-                Move currMove = moves.next();
-                if (board.isLegal(currMove)) {
-                    board.makeMove(currMove);
-                    int after = findMove(board, depth - 1,
-                            false, -1, sub, beta);
-                    board.undo();
-                    if (after > sub && saveMove) {
-                        _lastFoundMove = currMove;
-                        sub = after;
-                    }
-                    if (sub > beta) {
-                        return beta;
-                    }
-                }
+        int move = _book == null ? Move.NONE : _book.probe(b);
+        if (move == Move.NONE && _regions && b.contestedRegions() == 0) {
+            move = _filler.bestMove(b);
+        }
+        long deadline = System.nanoTime() + moveBudget(b);
+        int pondered =
+            stopPondering(b.hashKey(),
+                          move == Move.NONE ? deadline : System.nanoTime());
+        if (move != Move.NONE) {
+            return move;
+        }
+        if (_controller.evaluator() != _evaluator) {
+            setEvaluator(_controller.evaluator());
+        } else if (pondered != Move.NONE) {
+            return pondered;
+        }
+        return search(b, MAX_DEPTH, deadline);
+    }
+
+    /** Start searching, in a background thread, the position expected
+     *  after my packed MOVE (which I am about to make) and the reply I
+     *  predict for my opponent, while my opponent chooses its move.
+     *  The thread searches a copy of the board, so the controller's is
+     *  never shared.  The prediction is the best move stored for the
+     *  position after MOVE in my transposition table, which my last
+     *  search will usually have left there, or else that of a quick
+     *  search.  The search runs until stopped (see stopPondering). */
+    private void startPondering(int move) {
+        Board position = new Board(board());
+        position.makeMove(move);
+        if (position.winner() != null) {
+            return;
+        }
+        _ponderKey = 0;
+        _ponderResult = Move.NONE;
+        _ponderCancelled = false;
+        _ponder = new Thread(() -> {
+            int reply = predictReply(position);
+            if (_ponderCancelled || reply == Move.NONE) {
+                return;
             }
-            return sub;
-        }
-        if (sense == -1) {
-            int sub = beta;
-            Iterator<Move> moves = board.legalMoves(BLACK);
-            while (moves.hasNext()) {
-                Move currMove = moves.next();
-                if (board.isLegal(currMove)) {
-                    board.makeMove(currMove);
-                    int after = findMove(board, depth - 1,
-                            false, 1, alpha, sub);
-                    board.undo();
-                    if (after < sub && saveMove) {
-                        _lastFoundMove = currMove;
-                        sub = after;
-                    }
-                    if (sub < alpha) {
-                        return alpha;
-                    }
+            position.makeMove(reply);
+            if (position.winner() != null) {
+                return;
+            }
+            _ponderKey = position.hashKey();
+            _ponderResult = search(position, MAX_DEPTH, Utils.NO_DEADLINE);
+        });
+        _ponder.setDaemon(true);
+        _ponder.start();
+    }
+
+    /** Return my prediction of the best reply on POSITION, as a packed
+     *  move, or Move.NONE if there is no move. */
+    private int predictReply(Board position) {
+        if (_table != null) {
+            long entry = _table.probe(position.hashKey());
+            if (entry != TranspositionTable.MISS) {
+                int move = TranspositionTable.move(entry);
+                if (move != Move.NONE && position.isLegal(move)) {
+                    return move;
                 }
             }
-            return sub;
-        }
-        return 0;
-    }
-
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        int N = board.numMoves();
-        if (N < 2 * 10 + 5) {
-            return 1;
-        } else if (N < 4 * 10 + 5) {
-            return 2;
-        } else if (N < 5 * 10) {
-            return 3;
-        } else if (N < 7 * 10) {
-            return 4;
-        } else {
-            return 5;
-        }
-    }
-
-
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
-        } else {
-            int countWhite = 0;
-            Iterator<Move> white = board.legalMoves(WHITE);
-            int countBlack = 0;
-            Iterator<Move> black = board.legalMoves(BLACK);
-            while (white.hasNext()) {
-                countWhite++;
-                white.next();
+        }
+        return search(position, PREDICTION_DEPTH);
+    }
+
+    /** Stop my ponder search, if there is one, and return its move, if
+     *  it was searching the position with Zobrist key KEY (a "ponder
+     *  hit") and completed an iteration, or else Move.NONE.  On a hit,
+     *  the search first runs on until System.nanoTime() passes
+     *  DEADLINE, as if it had been started for this move. */
+    private int stopPondering(long key, long deadline) {
+        if (_ponder == null) {
+            return Move.NONE;
+        }
+        boolean hit = _ponderKey == key && key != 0;
+        if (_ponderKey != 0) {
+            _ponders += 1;
+            _ponderHits += hit ? 1 : 0;
+        }
+        if (hit) {
+            Utils.joinQuietly(_ponder, deadline - System.nanoTime());
+        }
+        _ponderCancelled = true;
+        while (_ponder.isAlive()) {
+            _stop.set(true);
+            Utils.joinQuietly(_ponder, STOP_POLL);
+        }
+        _ponder = null;
+        _ponderKey = 0;
+        return hit && _completedDepth > 0 ? _ponderResult : Move.NONE;
+    }
+
+    /** Return the number of my predictions of my opponent's replies
+     *  that were tested by its actual move since my last finish (see
+     *  startPondering). */
+    int ponders() {
+        return _ponders;
+    }
+
+    /** Return the number of those predictions that were right. */
+    int ponderHits() {
+        return _ponderHits;
+    }
+
+    /** Return the best move for the side to move on BOARD found by an
+     *  alpha-beta search to DEPTH levels, as a packed move, or Move.NONE
+     *  if there is no move.  BOARD is restored when done. */
+    int search(Board board, int depth) {
+        return search(board, depth, Utils.NO_DEADLINE);
+    }
+
+    /** Return the best move for the side to move on BOARD, as a packed
+     *  move, or Move.NONE if there is no move, searching with iterative
+     *  deepening up to MAXDEPTH until DEADLINE passes (see
+     *  Searcher.search).  Searches by root splitting if so set, and
+     *  otherwise with lazy SMP.  BOARD is restored when done. */
+    int search(Board board, int maxDepth, long deadline) {
+        if (_table == null && _tableSize > 0) {
+            _table = new TranspositionTable(_tableSize);
+            _table.setSalt(tableSalt());
+        }
+        if (_rootSplit) {
+            if (_rootSearch == null) {
+                _rootSearch = new RootSplitSearch(_threads, _table, _stop);
+                _rootSearch.setMoveOrdering(_moveOrdering);
+                _rootSearch.setSplitPlies(_splitPlies);
+                _rootSearch.setBeamWidths(_beamWidths);
+                _rootSearch.setRegions(_regions);
+                _rootSearch.setTablebase(_tablebase);
+                _rootSearch.setEvaluator(_evaluator);
+            }
+            int move = _rootSearch.search(board, maxDepth, deadline);
+            _completedDepth = _rootSearch.completedDepth();
+            return move;
+        }
+        return lazySmpSearch(board, maxDepth, deadline);
+    }
+
+    /** Return the best move for the side to move on BOARD, as for
+     *  search(BOARD, MAXDEPTH, DEADLINE).  With more than one thread,
+     *  helper threads search their own copies of BOARD at the same time,
+     *  sharing the transposition table, until the main search finishes
+     *  ("lazy SMP").  The result is the main search's move unless a
+     *  helper completed a deeper iteration. */
+    private int lazySmpSearch(Board board, int maxDepth, long deadline) {
+        if (_searchers == null || _searchers.length != _threads) {
+            _searchers = new Searcher[_threads];
+            for (int i = 0; i < _threads; i += 1) {
+                _searchers[i] = new Searcher(i, _table, _stop);
+                _searchers[i].setMoveOrdering(_moveOrdering);
+                _searchers[i].setSplitPlies(_splitPlies);
+                _searchers[i].setBeamWidths(_beamWidths);
+                _searchers[i].setRegions(_regions);
+                _searchers[i].setTablebase(_tablebase);
+                _searchers[i].setEvaluator(_evaluator);
             }
-            while (black.hasNext()) {
-                countBlack++;
-                black.next();
+        }
+        _stop.set(false);
+        Thread[] helpers = new Thread[_threads - 1];
+        int[] results = new int[_threads];
+        for (int i = 1; i < _threads; i += 1) {
+            Searcher helper = _searchers[i];
+            Board copy = new Board(board);
+            int k = i;
+            helpers[i - 1] = new Thread(() -> {
+                results[k] = helper.search(copy, maxDepth, deadline);
+            });
+            helpers[i - 1].start();
+        }
+        results[0] = _searchers[0].search(board, maxDepth, deadline);
+        _stop.set(true);
+        int best = 0;
+        for (int i = 1; i < _threads; i += 1) {
+            Utils.joinQuietly(helpers[i - 1]);
+            if (_searchers[i].completedDepth()
+                > _searchers[best].completedDepth()
+                && results[i] != Move.NONE) {
+                best = i;
             }
-            return countWhite - countBlack;
         }
+        _completedDepth = _searchers[best].completedDepth();
+        return results[best];
+    }
+
+    /** Return the depth of the last iteration completed by the last
+     *  search (by whichever thread supplied its move). */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the number of positions visited by all my search threads
+     *  since this AI was created (or its search settings last
+     *  changed). */
+    long nodes() {
+        long nodes = _rootSearch == null ? 0 : _rootSearch.nodes();
+        if (_searchers != null) {
+            for (Searcher searcher : _searchers) {
+                nodes += searcher.nodes();
+            }
+        }
+        return nodes;
+    }
+
+    /** Return my transposition table, or null if I have none (yet). */
+    TranspositionTable table() {
+        return _table;
     }
+
+    /** Number of entries in my transposition table (0 for none). */
+    private int _tableSize = DEFAULT_TABLE_SIZE;
+
+    /** My transposition table, created when first needed, or null. */
+    private TranspositionTable _table;
+
+    /** A table shared by the AIs created from me and by me, or null. */
+    private TranspositionTable _sharedTable;
+
+    /** Spreads the bits of the salt of transposition-table keys. */
+    private static final long SALT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** Number of threads searching for each move. */
+    private int _threads = 1;
+
+    /** True if I search by root splitting rather than lazy SMP. */
+    private boolean _rootSplit;
+
+    /** Template for the evaluators used by my searches. */
+    private Evaluator _evaluator = new MobilityEvaluator();
+
+    /** True if my searches order moves by killers and history. */
+    private boolean _moveOrdering = true;
+
+    /** True if my searches split moves into amazon and spear plies. */
+    private boolean _splitPlies;
+
+    /** Beam widths by ply for selective search; empty for full width. */
+    private int[] _beamWidths = new int[0];
+
+    /** True if my searches use the board's regions. */
+    private boolean _regions = true;
+
+    /** My opening book, or null if none. */
+    private OpeningBook _book;
+
+    /** My endgame tablebase, or null if none. */
+    private Tablebase _tablebase;
+
+    /** True if I search while my manual opponent chooses its move. */
+    private boolean _pondering;
+
+    /** Depth of the search predicting my opponent's reply when my
+     *  transposition table has none. */
+    private static final int PREDICTION_DEPTH = 1;
+
+    /** Nanoseconds between signals to a ponder search to stop, until it
+     *  has (the first may come before the search starts listening). */
+    private static final long STOP_POLL = 1_000_000;
+
+    /** My ponder search's thread, or null if none is running. */
+    private Thread _ponder;
+
+    /** Zobrist key of the position my ponder search is searching, or 0
+     *  if it has not yet predicted my opponent's reply. */
+    private volatile long _ponderKey;
+
+    /** Set to tell my ponder search not to start searching. */
+    private volatile boolean _ponderCancelled;
+
+    /** The move found by my last ponder search (read once its thread
+     *  is done). */
+    private int _ponderResult;
+
+    /** Predictions tested and found right since my last finish. */
+    private int _ponders, _ponderHits;
+
+    /** My root-splitting search, created when first needed. */
+    private RootSplitSearch _rootSearch;
+
+    /** One searcher per thread (the first runs on the caller's thread),
+     *  created when first needed. */
+    private Searcher[] _searchers;
+
+    /** Chooses my moves in the filling phase. */
+    private final FillingSolver _filler = new FillingSolver();
+
+    /** Set to stop all threads of the current search. */
+    private final AtomicBoolean _stop = new AtomicBoolean();
+
+    /** Depth of the last completed iteration of the last search. */
+    private int _completedDepth;
 }
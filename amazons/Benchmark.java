@@ -0,0 +1,635 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import static amazons.Piece.*;
+
+/** Timing harness for the Amazons engine.  Each command-line argument
+ *  names one benchmark to run (all of them if there are no arguments).
+ *  Every benchmark works over the same reproducible set of positions,
+ *  reached by random play from the initial position.
+ *  @author William Tai
+ */
+class Benchmark {
+
+    /** Number of positions in the benchmark set. */
+    static final int POSITIONS = 40;
+
+    /** Seed for the random games that produce the benchmark positions. */
+    static final long SEED = 61;
+
+    /** Number of timed passes over the position set per benchmark. */
+    private static final int PASSES = 20;
+
+    /** Number of untimed passes run first to let the JIT compiler
+     *  settle. */
+    private static final int WARMUP = 10;
+
+    /** Run the benchmarks named in ARGS (all if ARGS is empty). */
+    public static void main(String... args) {
+        Board[] positions = positions(POSITIONS, SEED);
+        boolean all = args.length == 0;
+        for (String name : all ? BENCHMARKS : args) {
+            switch (name) {
+            case "movegen":
+                moveGen(positions);
+                break;
+            case "makeundo":
+                makeUndo(positions);
+                break;
+            case "movebuf":
+                moveBuffer(positions);
+                break;
+            case "mobility":
+                mobility(positions);
+                break;
+            case "eval":
+                evaluators(positions, EVALUATORS);
+                break;
+            case "vector":
+                System.out.printf("Vector API kernel %s%n",
+                                  VectorTerritoryEvaluator.vectorized()
+                                  ? "in use" : "unavailable; scalar code");
+                evaluators(positions, TerritoryEvaluator.NAME,
+                           VectorTerritoryEvaluator.NAME);
+                break;
+            case "winner":
+                winner(positions);
+                break;
+            case "tt":
+                transpositions(positions);
+                break;
+            case "ttfile":
+                mappedTable(positions);
+                break;
+            case "ordering":
+                moveOrdering(positions);
+                break;
+            case "smp":
+                parallelSearch(positions, false);
+                break;
+            case "rootsplit":
+                parallelSearch(positions, true);
+                break;
+            case "halfply":
+                splitPlies(positions);
+                break;
+            case "beam":
+                beamSearch(positions);
+                break;
+            case "mcts":
+                monteCarlo(positions);
+                break;
+            case "regions":
+                regions(positions);
+                break;
+            case "filling":
+                filling(positions);
+                break;
+            default:
+                System.err.printf("Unknown benchmark: %s%n", name);
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Names of all benchmarks, in the order they are run by default. */
+    private static final String[] BENCHMARKS = {
+        "movegen", "makeundo", "movebuf", "winner", "mobility", "eval",
+        "vector", "tt", "ttfile", "ordering", "halfply", "beam", "regions",
+        "filling", "smp", "rootsplit", "mcts",
+    };
+
+    /** Return N positions, each reached by playing a random number of
+     *  random legal moves from the initial position, using a generator
+     *  seeded with SEED.  Positions are spread over the opening, middle
+     *  game and endgame. */
+    static Board[] positions(int n, long seed) {
+        Random rand = new Random(seed);
+        Board[] result = new Board[n];
+        for (int i = 0; i < n; i += 1) {
+            Board b = new Board();
+            int plies = rand.nextInt(2 * 10 * 3);
+            for (int k = 0; k < plies && b.winner() == null; k += 1) {
+                ArrayList<Move> moves = new ArrayList<>();
+                Iterator<Move> iter = b.legalMoves();
+                while (iter.hasNext()) {
+                    moves.add(iter.next());
+                }
+                if (moves.isEmpty()) {
+                    break;
+                }
+                b.makeMove(moves.get(rand.nextInt(moves.size())));
+            }
+            result[i] = b;
+        }
+        return result;
+    }
+
+    /** Time full enumeration of legalMoves() over POSITIONS. */
+    static void moveGen(Board[] positions) {
+        long moves = 0;
+        long start = 0;
+        for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+            if (pass == 0) {
+                moves = 0;
+                start = System.nanoTime();
+            }
+            for (Board b : positions) {
+                Iterator<Move> iter = b.legalMoves();
+                while (iter.hasNext()) {
+                    iter.next();
+                    moves += 1;
+                }
+            }
+        }
+        report("movegen", "moves", moves, System.nanoTime() - start);
+    }
+
+    /** Time makeMove/undo of every legal move over POSITIONS. */
+    static void makeUndo(Board[] positions) {
+        ArrayList<ArrayList<Move>> all = new ArrayList<>();
+        for (Board b : positions) {
+            ArrayList<Move> moves = new ArrayList<>();
+            Iterator<Move> iter = b.legalMoves();
+            while (iter.hasNext()) {
+                moves.add(iter.next());
+            }
+            all.add(moves);
+        }
+        long count = 0;
+        long start = 0;
+        for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+            if (pass == 0) {
+                count = 0;
+                start = System.nanoTime();
+            }
+            for (int i = 0; i < positions.length; i += 1) {
+                Board b = positions[i];
+                for (Move m : all.get(i)) {
+                    b.makeMove(m);
+                    b.undo();
+                    count += 1;
+                }
+            }
+        }
+        report("makeundo", "make/undo pairs", count,
+               System.nanoTime() - start);
+    }
+
+    /** Time generateMoves into a reused buffer over POSITIONS. */
+    static void moveBuffer(Board[] positions) {
+        int[] buffer = new int[Board.MAX_MOVES];
+        long moves = 0;
+        long start = 0;
+        for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+            if (pass == 0) {
+                moves = 0;
+                start = System.nanoTime();
+            }
+            for (Board b : positions) {
+                moves += b.generateMoves(b.turn(), buffer);
+            }
+        }
+        report("movebuf", "moves", moves, System.nanoTime() - start);
+    }
+
+    /** Time the winner test after each legal move from each of
+     *  POSITIONS, using the incremental winner() and the neighbor scan
+     *  of scanWinner().  Both include the cost of the makeMove and undo
+     *  around each test, as in a search. */
+    static void winner(Board[] positions) {
+        int[][] all = new int[positions.length][];
+        for (int i = 0; i < positions.length; i += 1) {
+            Board b = positions[i];
+            int[] moves = new int[Board.MAX_MOVES];
+            all[i] = Arrays.copyOf(moves, b.generateMoves(b.turn(), moves));
+        }
+        for (boolean scan : new boolean[] { true, false }) {
+            long count = 0, start = 0, winners = 0;
+            for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+                if (pass == 0) {
+                    count = winners = 0;
+                    start = System.nanoTime();
+                }
+                for (int i = 0; i < positions.length; i += 1) {
+                    Board b = positions[i];
+                    for (int move : all[i]) {
+                        b.makeMove(move);
+                        Piece w = scan ? b.scanWinner() : b.winner();
+                        if (w != null) {
+                            winners += 1;
+                        }
+                        b.undo();
+                        count += 1;
+                    }
+                }
+            }
+            report(scan ? "winner-scan" : "winner-incr", "tests", count,
+                   System.nanoTime() - start);
+            System.out.printf("%-12s %11d wins found%n", "", winners);
+        }
+    }
+
+    /** Number of children of each position evaluated by the mobility
+     *  benchmark. */
+    private static final int LEAVES = 16;
+
+    /** Time the mobility evaluation of LEAVES children of each of
+     *  POSITIONS (as at the leaves of a search), counting moves for both
+     *  sides by generating them into a buffer, by countLegalMoves, and by
+     *  queenReach. */
+    static void mobility(Board[] positions) {
+        int[] buffer = new int[Board.MAX_MOVES];
+        int[][] leaves = leaves(positions);
+        String[] names = { "mob-generate", "mob-count", "mob-reach" };
+        for (int method = 0; method < names.length; method += 1) {
+            long count = 0, start = 0, total = 0;
+            for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+                if (pass == 0) {
+                    count = total = 0;
+                    start = System.nanoTime();
+                }
+                for (int i = 0; i < positions.length; i += 1) {
+                    Board b = positions[i];
+                    for (int move : leaves[i]) {
+                        b.makeMove(move);
+                        switch (method) {
+                        case 0:
+                            total += b.generateMoves(WHITE, buffer)
+                                - b.generateMoves(BLACK, buffer);
+                            break;
+                        case 1:
+                            total += b.countLegalMoves(WHITE)
+                                - b.countLegalMoves(BLACK);
+                            break;
+                        default:
+                            total += b.queenReach(WHITE)
+                                - b.queenReach(BLACK);
+                            break;
+                        }
+                        b.undo();
+                        count += 1;
+                    }
+                }
+            }
+            report(names[method], "leaves", count,
+                   System.nanoTime() - start);
+            System.out.printf("%-12s %11d total score%n", "", total);
+        }
+    }
+
+    /** Names of the evaluators compared by the eval benchmark. */
+    private static final String[] EVALUATORS = {
+        MobilityEvaluator.NAME, TerritoryEvaluator.NAME,
+        BitboardTerritoryEvaluator.NAME,
+    };
+
+    /** Time one call of each of the evaluators called NAMES on LEAVES
+     *  children of each of POSITIONS. */
+    static void evaluators(Board[] positions, String... names) {
+        int[][] leaves = leaves(positions);
+        for (String name : names) {
+            Evaluator evaluator = Evaluator.named(name);
+            long count = 0, start = 0, total = 0;
+            for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+                if (pass == 0) {
+                    count = total = 0;
+                    start = System.nanoTime();
+                }
+                for (int i = 0; i < positions.length; i += 1) {
+                    Board b = positions[i];
+                    for (int move : leaves[i]) {
+                        b.makeMove(move);
+                        if (b.winner() == null) {
+                            total += evaluator.score(b);
+                            count += 1;
+                        }
+                        b.undo();
+                    }
+                }
+            }
+            report("eval-" + name, "calls", count,
+                   System.nanoTime() - start);
+            System.out.printf("%-12s %11d total score%n", "", total);
+        }
+    }
+
+    /** Return up to LEAVES moves from each of POSITIONS, spread evenly
+     *  over its list of legal moves. */
+    static int[][] leaves(Board[] positions) {
+        int[] buffer = new int[Board.MAX_MOVES];
+        int[][] leaves = new int[positions.length][];
+        for (int i = 0; i < positions.length; i += 1) {
+            Board b = positions[i];
+            int n = b.generateMoves(b.turn(), buffer);
+            leaves[i] = new int[Math.min(n, LEAVES)];
+            for (int k = 0; k < leaves[i].length; k += 1) {
+                leaves[i][k] = buffer[k * n / leaves[i].length];
+            }
+        }
+        return leaves;
+    }
+
+    /** Return the positions among POSITIONS, still in play, in which
+     *  at least MINMOVES moves have been made. */
+    static Board[] laterPositions(Board[] positions, int minMoves) {
+        ArrayList<Board> result = new ArrayList<>();
+        for (Board b : positions) {
+            if (b.numMoves() >= minMoves && b.winner() == null) {
+                result.add(b);
+            }
+        }
+        return result.toArray(new Board[result.size()]);
+    }
+
+    /** Minimum number of moves made in the positions used for search
+     *  benchmarks, so that fixed-depth searches finish quickly. */
+    static final int SEARCH_PLY = 40;
+
+    /** Depth of the fixed-depth search benchmarks. */
+    static final int SEARCH_DEPTH = 3;
+
+    /** Compare fixed-depth searches of the later POSITIONS by an AI
+     *  without and with a transposition table. */
+    static void transpositions(Board[] positions) {
+        Board[] boards = laterPositions(positions, SEARCH_PLY);
+        for (int tableSize : new int[] { 0, AI.DEFAULT_TABLE_SIZE }) {
+            AI ai = new AI();
+            ai.setTableSize(tableSize);
+            long start = System.nanoTime();
+            for (Board b : boards) {
+                ai.search(new Board(b), SEARCH_DEPTH);
+            }
+            long elapsed = System.nanoTime() - start;
+            report(tableSize == 0 ? "tt-off" : "tt-on", "nodes",
+                   ai.nodes(), elapsed);
+            TranspositionTable table = ai.table();
+            if (table != null) {
+                System.out.printf("%-12s %11d probes, %5.1f%% hits,"
+                                  + " %d stores%n", "", table.probes(),
+                                  100 * table.hitRate(), table.stores());
+            }
+        }
+    }
+
+    /** Compare fixed-depth searches of the later POSITIONS by an AI
+     *  with a table in memory and with a MappedTranspositionTable in a
+     *  new temporary file, and then by a second AI, as another game or
+     *  process would, with the same file. */
+    static void mappedTable(Board[] positions) {
+        Board[] boards = laterPositions(positions, SEARCH_PLY);
+        Path file = null;
+        try {
+            file = Files.createTempFile("amazons", ".tt");
+            Files.delete(file);
+            String[] names = { "tt-memory", "tt-file", "tt-reused" };
+            for (int run = 0; run < names.length; run += 1) {
+                AI ai = new AI();
+                if (run > 0) {
+                    ai.setSharedTable(MappedTranspositionTable
+                                      .open(file, AI.DEFAULT_TABLE_SIZE));
+                }
+                long start = System.nanoTime();
+                for (Board b : boards) {
+                    ai.search(new Board(b), SEARCH_DEPTH);
+                }
+                long elapsed = System.nanoTime() - start;
+                report(names[run], "nodes", ai.nodes(), elapsed);
+                System.out.printf("%-12s %11.2f ms to depth %d, %5.1f%%"
+                                  + " hits%n", "",
+                                  elapsed / 1e6 / Math.max(boards.length, 1),
+                                  SEARCH_DEPTH, 100 * ai.table().hitRate());
+            }
+        } catch (IOException excp) {
+            System.err.printf("ttfile: %s%n", excp.getMessage());
+        } finally {
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException excp) {
+                /* Leave it for the system to remove. */
+            }
+        }
+    }
+
+    /** Compare fixed-depth searches of the later POSITIONS by an AI
+     *  without and with killer and history move ordering.  Fewer nodes
+     *  means more and earlier cutoffs. */
+    static void moveOrdering(Board[] positions) {
+        Board[] boards = laterPositions(positions, SEARCH_PLY);
+        for (boolean ordering : new boolean[] { false, true }) {
+            AI ai = new AI();
+            ai.setMoveOrdering(ordering);
+            long start = System.nanoTime();
+            for (Board b : boards) {
+                ai.search(new Board(b), SEARCH_DEPTH);
+            }
+            report(ordering ? "ordering-on" : "ordering-off", "nodes",
+                   ai.nodes(), System.nanoTime() - start);
+        }
+    }
+
+    /** Compare fixed-depth searches of the later POSITIONS searching
+     *  whole moves and searching amazon moves and spear throws as
+     *  separate plies, reporting the nodes searched and the average time
+     *  to complete SEARCH_DEPTH. */
+    static void splitPlies(Board[] positions) {
+        Board[] boards = laterPositions(positions, SEARCH_PLY);
+        for (boolean split : new boolean[] { false, true }) {
+            AI ai = new AI();
+            ai.setSplitPlies(split);
+            long start = System.nanoTime();
+            for (Board b : boards) {
+                ai.search(new Board(b), SEARCH_DEPTH);
+            }
+            long elapsed = System.nanoTime() - start;
+            report(split ? "halfply" : "wholeply", "nodes", ai.nodes(),
+                   elapsed);
+            System.out.printf("%-12s %11.2f ms to depth %d%n", "",
+                              elapsed / 1e6 / Math.max(boards.length, 1),
+                              SEARCH_DEPTH);
+        }
+    }
+
+    /** Beam widths by ply tried by the beam benchmark. */
+    private static final int[] BEAM_WIDTHS = { 12, 8, 6 };
+
+    /** Number of positions searched by the beam benchmark. */
+    private static final int BEAM_POSITIONS = 10;
+
+    /** Time allowed for each search by the beam benchmark, in
+     *  nanoseconds. */
+    private static final long BEAM_BUDGET = 1_000_000_000L;
+
+    /** Compare full-width searches with selective ones keeping
+     *  BEAM_WIDTHS moves per ply, each given BEAM_BUDGET per move on the
+     *  first BEAM_POSITIONS of POSITIONS (from the opening on), reporting
+     *  the nodes searched and the average depth completed, and how often
+     *  the selective search chooses the full-width search's move. */
+    static void beamSearch(Board[] positions) {
+        Board[] boards = Arrays.copyOf(positions,
+                                       Math.min(BEAM_POSITIONS,
+                                                positions.length));
+        int[][] moves = new int[2][boards.length];
+        for (int k = 0; k < 2; k += 1) {
+            AI ai = new AI();
+            if (k == 1) {
+                ai.setBeamWidths(BEAM_WIDTHS);
+            }
+            long start = System.nanoTime(), depths = 0;
+            for (int i = 0; i < boards.length; i += 1) {
+                moves[k][i] = ai.search(new Board(boards[i]), AI.MAX_DEPTH,
+                                        System.nanoTime() + BEAM_BUDGET);
+                depths += ai.completedDepth();
+            }
+            report(k == 0 ? "fullwidth" : "beam", "nodes", ai.nodes(),
+                   System.nanoTime() - start);
+            System.out.printf("%-12s %11.2f average depth in %d ms%n", "",
+                              (double) depths / Math.max(boards.length, 1),
+                              BEAM_BUDGET / 1_000_000);
+        }
+        int same = 0;
+        for (int i = 0; i < boards.length; i += 1) {
+            same += moves[0][i] == moves[1][i] ? 1 : 0;
+        }
+        System.out.printf("%-12s %11d of %d moves the same with widths"
+                          + " %s%n", "", same, boards.length,
+                          Arrays.toString(BEAM_WIDTHS));
+    }
+
+    /** Least number of moves made in the positions searched by the
+     *  regions benchmark. */
+    private static final int ENDGAME_PLY = 50;
+
+    /** Depth of the searches of the regions benchmark. */
+    private static final int ENDGAME_DEPTH = 5;
+
+    /** Compare fixed-depth searches of the POSITIONS with at least
+     *  ENDGAME_PLY moves made, with and without the use of regions,
+     *  reporting the nodes searched and the average time per move. */
+    static void regions(Board[] positions) {
+        Board[] boards = laterPositions(positions, ENDGAME_PLY);
+        for (boolean regions : new boolean[] { false, true }) {
+            AI ai = new AI();
+            ai.setRegions(regions);
+            long start = System.nanoTime();
+            for (Board b : boards) {
+                ai.search(new Board(b), ENDGAME_DEPTH);
+            }
+            long elapsed = System.nanoTime() - start;
+            report(regions ? "regions-on" : "regions-off", "nodes",
+                   ai.nodes(), elapsed);
+            System.out.printf("%-12s %11.2f ms per move at depth %d%n", "",
+                              elapsed / 1e6 / Math.max(boards.length, 1),
+                              ENDGAME_DEPTH);
+        }
+    }
+
+    /** Time the moves of the filling phase: each of POSITIONS is played
+     *  on at random until no region is contested, and then to the end
+     *  with moves chosen by a FillingSolver, which keeps its memo from
+     *  game to game, as an AI's does.  Runs WARMUP untimed passes
+     *  first. */
+    static void filling(Board[] positions) {
+        Random rand = new Random(SEED);
+        int[] moves = new int[Board.MAX_MOVES];
+        FillingSolver solver = new FillingSolver();
+        long count = 0, elapsed = 0;
+        for (int pass = -WARMUP; pass < PASSES; pass += 1) {
+            for (Board position : positions) {
+                Board b = new Board(position);
+                while (b.winner() == null && b.contestedRegions() > 0) {
+                    int n = b.generateMoves(b.turn(), moves);
+                    b.makeMove(moves[rand.nextInt(n)]);
+                }
+                while (b.winner() == null) {
+                    long start = System.nanoTime();
+                    int move = solver.bestMove(b);
+                    if (pass >= 0) {
+                        elapsed += System.nanoTime() - start;
+                        count += 1;
+                    }
+                    b.makeMove(move);
+                }
+            }
+        }
+        report("filling", "moves", count, elapsed);
+    }
+
+    /** Thread counts compared by the parallel search benchmark. */
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16 };
+
+    /** Compare fixed-depth searches of the later POSITIONS by AIs using
+     *  each of THREAD_COUNTS threads, reporting the nodes searched per
+     *  second and the average time to complete SEARCH_DEPTH.  The AIs
+     *  split the root iff ROOTSPLIT, and otherwise use lazy SMP.  Each
+     *  AI starts with an empty transposition table. */
+    static void parallelSearch(Board[] positions, boolean rootSplit) {
+        Board[] boards = laterPositions(positions, SEARCH_PLY);
+        String name = rootSplit ? "rootsplit" : "smp";
+        System.out.printf("%s: %d processors available%n", name,
+                          Runtime.getRuntime().availableProcessors());
+        for (int threads : THREAD_COUNTS) {
+            AI ai = new AI();
+            ai.setThreads(threads);
+            ai.setRootSplit(rootSplit);
+            long start = System.nanoTime();
+            for (Board b : boards) {
+                ai.search(new Board(b), SEARCH_DEPTH);
+            }
+            long elapsed = System.nanoTime() - start;
+            report(name + "-" + threads, "nodes", ai.nodes(), elapsed);
+            System.out.printf("%-12s %11.2f ms to depth %d%n", "",
+                              elapsed / 1e6 / Math.max(boards.length, 1),
+                              SEARCH_DEPTH);
+        }
+    }
+
+    /** Time allowed for each search by the mcts benchmark, in
+     *  nanoseconds. */
+    private static final long MCTS_BUDGET = 500_000_000L;
+
+    /** Report the playout throughput of Monte Carlo tree searches given
+     *  MCTS_BUDGET on each of the first BEAM_POSITIONS of POSITIONS
+     *  (from the opening on) with each of THREAD_COUNTS threads, and the
+     *  average size of their trees. */
+    static void monteCarlo(Board[] positions) {
+        Board[] boards = Arrays.copyOf(positions,
+                                       Math.min(BEAM_POSITIONS,
+                                                positions.length));
+        System.out.printf("mcts: %d processors available%n",
+                          Runtime.getRuntime().availableProcessors());
+        for (int threads : THREAD_COUNTS) {
+            MCTSPlayer mcts = new MCTSPlayer();
+            mcts.setThreads(threads);
+            long start = System.nanoTime(), nodes = 0;
+            for (Board b : boards) {
+                mcts.search(b, System.nanoTime() + MCTS_BUDGET,
+                            Long.MAX_VALUE);
+                nodes += mcts.treeSize();
+            }
+            report("mcts-" + threads, "playouts", mcts.playouts(),
+                   System.nanoTime() - start);
+            System.out.printf("%-12s %11d tree nodes on average%n", "",
+                              nodes / Math.max(boards.length, 1));
+        }
+    }
+
+    /** Print the result of benchmark NAME, which processed COUNT
+     *  items of kind UNITS in ELAPSED nanoseconds. */
+    static void report(String name, String units, long count, long elapsed) {
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-12s %11d %s in %7.3f s: %11.0f/s, %7.1f ns"
+                          + " each%n", name, count, units, seconds,
+                          count / seconds,
+                          (double) elapsed / Math.max(count, 1));
+    }
+}
@@ -0,0 +1,233 @@
+package amazons;
+
+import static amazons.Piece.*;
+import static amazons.Board.HI_SQUARES;
+import static amazons.Board.bitHi;
+import static amazons.Board.bitLo;
+
+/** A TerritoryEvaluator that finds distances with bitboards.  Instead
+ *  of visiting squares one at a time, it grows the set of squares each
+ *  side reaches one distance level at a time: every level is a 100-bit
+ *  mask (in two longs, like Board's), and the squares one queen move
+ *  from a level are found by shifting the whole mask a step at a time
+ *  in each of the eight directions, masking with the empty squares
+ *  (and off the wrapped edge column) after each step.  The territory
+ *  totals then come from ANDs and bit counts of the level masks.  The
+ *  totals, and so the scores, are the same as TerritoryEvaluator's.
+ *  @author William Tai
+ */
+class BitboardTerritoryEvaluator extends TerritoryEvaluator {
+
+    /** My name, as used by Evaluator.named. */
+    static final String NAME = "bitboard";
+
+    /** An evaluator with the default weights. */
+    BitboardTerritoryEvaluator() {
+        super();
+    }
+
+    /** An evaluator with weights QUEENTERRITORY, KINGTERRITORY,
+     *  QUEENPOSITION, KINGPOSITION and TEMPO, as for TerritoryEvaluator. */
+    BitboardTerritoryEvaluator(double queenTerritory, double kingTerritory,
+                               double queenPosition, double kingPosition,
+                               double tempo) {
+        super(queenTerritory, kingTerritory, queenPosition, kingPosition,
+              tempo);
+    }
+
+    @Override
+    public Evaluator create() {
+        return new BitboardTerritoryEvaluator(_queenTerritory, _kingTerritory,
+                                              _queenPosition, _kingPosition,
+                                              _tempo);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    void tally(Board board) {
+        long emptyLo = ~board.maskLo(EMPTY),
+            emptyHi = ~board.maskHi(EMPTY) & HI_SQUARES;
+        for (int k = 0; k < 2; k += 1) {
+            Piece side = k == 0 ? WHITE : BLACK;
+            _queenDepth[k] = expand(board.maskLo(side), board.maskHi(side),
+                                    emptyLo, emptyHi, true,
+                                    _queenLo[k], _queenHi[k]);
+            _kingDepth[k] = expand(board.maskLo(side), board.maskHi(side),
+                                   emptyLo, emptyHi, false,
+                                   _kingLo[k], _kingHi[k]);
+            int[] counts = _queenCounts[k];
+            for (int d = 1; d <= UNREACHED; d += 1) {
+                counts[d] = d < _queenDepth[k] || d == UNREACHED
+                    ? Long.bitCount(_queenLo[k][d])
+                    + Long.bitCount(_queenHi[k][d])
+                    : 0;
+            }
+        }
+        _queenDiff = closer(_queenLo, _queenHi, _queenDepth, 0)
+            - closer(_queenLo, _queenHi, _queenDepth, 1);
+        _queenTies = ties(_queenLo, _queenHi, _queenDepth);
+        _kingDiff = closer(_kingLo, _kingHi, _kingDepth, 0)
+            - closer(_kingLo, _kingHi, _kingDepth, 1);
+        _kingTies = ties(_kingLo, _kingHi, _kingDepth);
+        _kingSum = kingSum();
+    }
+
+    /** Store in LO[d] and HI[d] the squares at distance d from the
+     *  squares in SEEDLO and SEEDHI, moving over the empty squares in
+     *  EMPTYLO and EMPTYHI by queen moves if QUEEN and king moves
+     *  otherwise, and in LO[UNREACHED] and HI[UNREACHED] the empty
+     *  squares not reached at all.  Returns the number of levels
+     *  (LO[0] and HI[0] being the seeds). */
+    private int expand(long seedLo, long seedHi, long emptyLo, long emptyHi,
+                       boolean queen, long[] lo, long[] hi) {
+        lo[0] = seedLo;
+        hi[0] = seedHi;
+        long doneLo = seedLo, doneHi = seedHi;
+        int d;
+        for (d = 1; true; d += 1) {
+            step(lo[d - 1], hi[d - 1], emptyLo, emptyHi, queen);
+            long nextLo = _reachLo & ~doneLo, nextHi = _reachHi & ~doneHi;
+            if ((nextLo | nextHi) == 0) {
+                break;
+            }
+            lo[d] = nextLo;
+            hi[d] = nextHi;
+            doneLo |= nextLo;
+            doneHi |= nextHi;
+        }
+        lo[UNREACHED] = emptyLo & ~doneLo;
+        hi[UNREACHED] = emptyHi & ~doneHi;
+        return d;
+    }
+
+    /** Set _reachLo and _reachHi to the empty squares (those in EMPTYLO
+     *  and EMPTYHI) one queen move (if QUEEN) or one king move (if not)
+     *  from some square in FROMLO and FROMHI.  Each direction takes one
+     *  shift-and-mask per step, moving all the rays at once. */
+    private void step(long fromLo, long fromHi, long emptyLo, long emptyHi,
+                      boolean queen) {
+        long reachLo = 0, reachHi = 0;
+        for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+            int n = SHIFTS[dir];
+            long openLo = WRAP_LO[dir] & emptyLo,
+                openHi = WRAP_HI[dir] & emptyHi;
+            long lo = fromLo, hi = fromHi;
+            do {
+                long nextLo, nextHi;
+                if (n > 0) {
+                    nextLo = lo << n;
+                    nextHi = (hi << n) | (lo >>> (Long.SIZE - n));
+                } else {
+                    nextLo = (lo >>> -n) | (hi << (Long.SIZE + n));
+                    nextHi = hi >>> -n;
+                }
+                lo = nextLo & openLo;
+                hi = nextHi & openHi;
+                reachLo |= lo;
+                reachHi |= hi;
+            } while (queen && (lo | hi) != 0);
+        }
+        _reachLo = reachLo;
+        _reachHi = reachHi;
+    }
+
+    /** Return the number of empty squares that side K (0 for White, 1
+     *  for Black) reaches in fewer moves than the other, where LO, HI
+     *  and DEPTH hold both sides' levels as set by expand. */
+    private static int closer(long[][] lo, long[][] hi, int[] depth, int k) {
+        int other = 1 - k, count = 0;
+        long nearLo = lo[other][0], nearHi = hi[other][0];
+        for (int d = 1; d < depth[k]; d += 1) {
+            if (d < depth[other]) {
+                nearLo |= lo[other][d];
+                nearHi |= hi[other][d];
+            }
+            count += Long.bitCount(lo[k][d] & ~nearLo)
+                + Long.bitCount(hi[k][d] & ~nearHi);
+        }
+        return count;
+    }
+
+    /** Return the number of empty squares both sides reach in the same
+     *  number of moves, where LO, HI and DEPTH hold their levels as set
+     *  by expand. */
+    private static int ties(long[][] lo, long[][] hi, int[] depth) {
+        int count = 0;
+        for (int d = 1; d < Math.min(depth[0], depth[1]); d += 1) {
+            count += Long.bitCount(lo[0][d] & lo[1][d])
+                + Long.bitCount(hi[0][d] & hi[1][d]);
+        }
+        return count;
+    }
+
+    /** Return the sum over empty squares of Black's king distance less
+     *  White's, limited to KING_SPAN either way, counting each pair of
+     *  levels at once. */
+    private int kingSum() {
+        int sum = 0;
+        for (int i = 1; i <= _kingDepth[0]; i += 1) {
+            int di = i == _kingDepth[0] ? UNREACHED : i;
+            long wLo = _kingLo[0][di], wHi = _kingHi[0][di];
+            if ((wLo | wHi) == 0) {
+                continue;
+            }
+            for (int j = 1; j <= _kingDepth[1]; j += 1) {
+                int dj = j == _kingDepth[1] ? UNREACHED : j;
+                int n = Long.bitCount(wLo & _kingLo[1][dj])
+                    + Long.bitCount(wHi & _kingHi[1][dj]);
+                sum += n * clampKing(dj - di);
+            }
+        }
+        return sum;
+    }
+
+    /** SHIFTS[dir] is the change in square index of a step in direction
+     *  dir (a left shift if positive, a right shift if negative). */
+    private static final int[] SHIFTS = new int[Square.DIRECTIONS];
+
+    /** WRAP_LO[dir] and WRAP_HI[dir] mask out the edge column that a
+     *  shift in direction dir would wrap onto. */
+    private static final long[]
+        WRAP_LO = new long[Square.DIRECTIONS],
+        WRAP_HI = new long[Square.DIRECTIONS];
+
+    static {
+        int center = Board.SIZE * Board.SIZE / 2 - Board.SIZE / 2 - 1;
+        for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+            SHIFTS[dir] = Square.step(dir);
+            int dcol = Square.ray(center, dir)[0] % Board.SIZE
+                - center % Board.SIZE;
+            int wrapped = dcol > 0 ? 0 : dcol < 0 ? Board.SIZE - 1 : -1;
+            WRAP_LO[dir] = -1L;
+            WRAP_HI[dir] = HI_SQUARES;
+            for (int s = 0; s < SQUARES; s += 1) {
+                if (s % Board.SIZE == wrapped) {
+                    WRAP_LO[dir] &= ~bitLo(s);
+                    WRAP_HI[dir] &= ~bitHi(s);
+                }
+            }
+        }
+    }
+
+    /** Queen-distance levels of White ([0]) and Black ([1]), as set by
+     *  expand. */
+    private final long[][]
+        _queenLo = new long[2][UNREACHED + 1],
+        _queenHi = new long[2][UNREACHED + 1];
+
+    /** King-distance levels of White ([0]) and Black ([1]), as set by
+     *  expand. */
+    private final long[][]
+        _kingLo = new long[2][UNREACHED + 1],
+        _kingHi = new long[2][UNREACHED + 1];
+
+    /** Numbers of queen and king levels of each side. */
+    private final int[] _queenDepth = new int[2], _kingDepth = new int[2];
+
+    /** Result of step. */
+    private long _reachLo, _reachHi;
+}
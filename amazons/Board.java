@@ -1,9 +1,10 @@
 package amazons;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.Stack;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import static amazons.Piece.*;
 import static amazons.Move.mv;
@@ -17,49 +18,42 @@ class Board {
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
 
+    /** An upper bound on the number of legal moves in any position: four
+     *  amazons, each reaching at most 36 squares, from each of which at
+     *  most 36 spear throws are possible. */
+    static final int MAX_MOVES = 4 * 36 * 36;
+
+    /** Number of square indices held in the low word of a mask (see
+     *  maskLo). */
+    static final int LO_BITS = Long.SIZE;
+
+    /** Bits of the high word of a mask that stand for squares. */
+    static final long HI_SQUARES = (1L << (SIZE * SIZE - LO_BITS)) - 1;
+
     /** the number of moves. */
     private int _numMoves = 0;
 
-    /** the stack of undos. */
-    private Stack<Move> myStack = new Stack<Move>();
-
-    /** gets the stack of undos.
-     *
-     * @return s the stack.
-     * */
-    Stack getStack() {
-        return myStack;
-    }
-
-    /** the board all of it. */
-    private String[][] board = new String[][] {
-            {"-", "-", "-", "B", "-", "-", "B", "-", "-", "-"},
-            {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-            {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-            {"B", "-", "-", "-", "-", "-", "-", "-", "-", "B"},
-            {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-            {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-            {"W", "-", "-", "-", "-", "-", "-", "-", "-", "W"},
-            {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-            {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-            {"-", "-", "-", "W", "-", "-", "W", "-", "-", "-"}
-    };
-
-    /** gets the board.
-     *
-     * @return s the board.
-     * */
-    String[][] boardgetter() {
-        return board;
-    }
-
-    /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
-     *  means that to going one step from (col, row) in direction k,
-     *  brings us to (col + dcol, row + drow). */
-    private static final int[][] DIR = {
-            { 0, 1 }, { 1, 1 }, { 1, 0 }, { 1, -1 },
-            { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 }
-    };
+    /** The packed moves made so far (see Move.pack), oldest first.  The
+     *  first _numMoves entries are valid; undo pops from the end. */
+    private int[] _history = new int[SIZE * SIZE];
+
+    /** Low words (squares 0-63) of the occupancy masks, indexed by
+     *  Piece ordinal.  The EMPTY entry holds the union of all blocked
+     *  squares (amazons of either color and spears). */
+    private long[] _maskLo = new long[Piece.values().length];
+
+    /** High words (squares 64-99) of the occupancy masks, indexed as for
+     *  _maskLo. */
+    private long[] _maskHi = new long[Piece.values().length];
+
+    /** Index of the mask of all blocked squares in _maskLo and _maskHi. */
+    private static final int BLOCKED = EMPTY.ordinal();
+
+    /** Indices of the squares holding the amazons of each side in the
+     *  initial position. */
+    private static final int[]
+        INITIAL_WHITE = { 3, 6, 30, 39 },
+        INITIAL_BLACK = { 60, 69, 93, 96 };
 
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
@@ -77,32 +71,41 @@ class Board {
         if (model == this) {
             return;
         }
-        this.board = new String[model.SIZE][model.SIZE];
-        for (int i = 0; i < model.board.length; i++) {
-            System.arraycopy(model.board[i], 0,
-                    this.board[i], 0, model.board[i].length);
+        System.arraycopy(model._maskLo, 0, _maskLo, 0, _maskLo.length);
+        System.arraycopy(model._maskHi, 0, _maskHi, 0, _maskHi.length);
+        System.arraycopy(model._free, 0, _free, 0, _free.length);
+        if (_history.length < model._numMoves) {
+            _history = new int[model._history.length];
         }
+        System.arraycopy(model._history, 0, _history, 0, model._numMoves);
+        this._numMoves = model._numMoves;
         this._turn = model.turn();
         this._winner = model._winner;
+        this._key = model._key;
+        System.arraycopy(model._regionParent, 0, _regionParent, 0,
+                         _regionParent.length);
+        _regionSpearLo = model._regionSpearLo;
+        _regionSpearHi = model._regionSpearHi;
+        _regionStaleLo = model._regionStaleLo;
+        _regionStaleHi = model._regionStaleHi;
+        _regionsValid = model._regionsValid;
+        _version += 1;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        board = new String[][] {
-                {"-", "-", "-", "B", "-", "-", "B", "-", "-", "-"},
-                {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-                {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-                {"B", "-", "-", "-", "-", "-", "-", "-", "-", "B"},
-                {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-                {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-                {"W", "-", "-", "-", "-", "-", "-", "-", "-", "W"},
-                {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-                {"-", "-", "-", "-", "-", "-", "-", "-", "-", "-"},
-                {"-", "-", "-", "W", "-", "-", "W", "-", "-", "-"}
-        };
+        Arrays.fill(_maskLo, 0L);
+        Arrays.fill(_maskHi, 0L);
+        System.arraycopy(NEIGHBOR_COUNTS, 0, _free, 0, _free.length);
+        _key = 0;
+        for (int k = 0; k < INITIAL_WHITE.length; k += 1) {
+            set(WHITE, INITIAL_WHITE[k]);
+            set(BLACK, INITIAL_BLACK[k]);
+        }
         _numMoves = 0;
         _turn = WHITE;
         _winner = EMPTY;
+        _regionsValid = false;
     }
 
     /** Return the Piece whose move it is (WHITE or BLACK). */
@@ -117,66 +120,209 @@ class Board {
     }
 
     /** Return the winner in the current position, or null if the game is
-     *  not yet finished. */
+     *  not yet finished.  The game is over when no amazon of the side to
+     *  move has an empty neighbor, in which case its opponent wins.  Uses
+     *  the free-neighbor counts kept up to date by set and clear, so it
+     *  looks at four squares at most, and caches its result until the
+     *  board changes. */
     Piece winner() {
-        int count = 0;
-        Iterator<Square> allSquares = Square.iterator();
-        while (allSquares.hasNext()) {
-            Square s = allSquares.next();
-            if (board[SIZE - s.row()][s.col()].equals(turn().toString())) {
-                for (int i = 0; i < 8; i++) {
-                    if (!isLegal(s, s.queenMove(i, 1))) {
-                        count += 1;
-                    } else {
-                        return null;
-                    }
-                }
+        if (_winner != EMPTY) {
+            return _winner;
+        }
+        int k = _turn.ordinal();
+        long lo = _maskLo[k], hi = _maskHi[k];
+        _winner = _turn.opponent();
+        while (lo != 0 || hi != 0) {
+            int s;
+            if (lo != 0) {
+                s = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                s = LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            if (_free[s] > 0) {
+                _winner = null;
+                break;
             }
         }
-        if (count == 32) {
-            _winner = turn();
-            return _winner;
-        } else {
-            return null;
+        return _winner;
+    }
+
+    /** Return the winner in the current position, as for winner(), by
+     *  examining the neighbors of each amazon of the side to move rather
+     *  than using the free-neighbor counts or the cache.  For checking
+     *  and benchmarking winner(). */
+    Piece scanWinner() {
+        int k = _turn.ordinal();
+        long lo = _maskLo[k], hi = _maskHi[k];
+        while (lo != 0 || hi != 0) {
+            int s;
+            if (lo != 0) {
+                s = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                s = LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            for (int nb : NEIGHBORS[s]) {
+                if (!isBlocked(nb)) {
+                    return null;
+                }
+            }
         }
+        return _turn.opponent();
     }
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return get(s.col(), s.row());
+        return get(s.index());
     }
 
     /** Return the contents of the square at (COL, ROW), where
-     *  0 <= COL, ROW <= 9. */
+     *  0 <= COL <= 9 and 1 <= ROW <= 10 (as for Square.row()). */
     final Piece get(int col, int row) {
-        switch (board[SIZE - row][col]) {
-        case "-": return EMPTY;
-        case "B": return BLACK;
-        case "W": return WHITE;
-        case "S": return SPEAR;
-        default: throw new NoSuchElementException();
+        if (!Square.exists(col, row - 1)) {
+            throw new NoSuchElementException();
         }
+        return get((row - 1) * SIZE + col);
     }
 
     /** Return the contents of the square at COL ROW. */
     final Piece get(char col, char row) {
-        return get(col - 'a', row - '1');
+        return get(col - 'a', row - '0');
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    final Piece get(int index) {
+        if (!isBlocked(index)) {
+            return EMPTY;
+        } else if (isSet(WHITE, index)) {
+            return WHITE;
+        } else if (isSet(BLACK, index)) {
+            return BLACK;
+        } else {
+            return SPEAR;
+        }
     }
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        put(p, s.col(), s.row());
+        put(p, s.index());
     }
 
-    /** Set square (COL, ROW) to P. */
+    /** Set square (COL, ROW) to P, where COL and ROW are as for
+     *  get(int, int). */
     final void put(Piece p, int col, int row) {
-        board[SIZE - row][col] = p.toString();
-        _winner = EMPTY;
+        if (!Square.exists(col, row - 1)) {
+            throw new NoSuchElementException();
+        }
+        put(p, (row - 1) * SIZE + col);
     }
 
     /** Set square COL ROW to P. */
     final void put(Piece p, char col, char row) {
-        put(p, col - 'a', row - '1');
+        put(p, col - 'a', row - '0');
+    }
+
+    /** Set the square with index INDEX to P. */
+    private void put(Piece p, int index) {
+        Piece old = get(index);
+        if (old != EMPTY) {
+            clear(old, index);
+        }
+        if (p != EMPTY) {
+            set(p, index);
+        }
+        _winner = EMPTY;
+    }
+
+    /** Return true iff the square with index INDEX holds an amazon or
+     *  a spear. */
+    boolean isBlocked(int index) {
+        return isSet(EMPTY, index);
+    }
+
+    /** Return the low word (squares 0-63) of the mask of the squares
+     *  holding P, or of all blocked squares if P is EMPTY. */
+    long maskLo(Piece p) {
+        return _maskLo[p.ordinal()];
+    }
+
+    /** Return the high word (squares 64-99, in bits 0-35) of the mask
+     *  of the squares holding P, or of all blocked squares if P is
+     *  EMPTY. */
+    long maskHi(Piece p) {
+        return _maskHi[p.ordinal()];
+    }
+
+    /** Return true iff the square with index SQ is in the mask LO, HI
+     *  (as for maskLo and maskHi). */
+    static boolean has(long lo, long hi, int sq) {
+        return (bitLo(sq) & lo | bitHi(sq) & hi) != 0;
+    }
+
+    /** Return the low word of the mask of the square with index SQ. */
+    static long bitLo(int sq) {
+        return sq < LO_BITS ? 1L << sq : 0;
+    }
+
+    /** Return the high word of the mask of the square with index SQ. */
+    static long bitHi(int sq) {
+        return sq < LO_BITS ? 0 : 1L << (sq - LO_BITS);
+    }
+
+    /** Return true iff INDEX is set in the mask for P (the mask of all
+     *  blocked squares if P is EMPTY). */
+    private boolean isSet(Piece p, int index) {
+        int k = p.ordinal();
+        if (index < LO_BITS) {
+            return (_maskLo[k] & (1L << index)) != 0;
+        } else {
+            return (_maskHi[k] & (1L << (index - LO_BITS))) != 0;
+        }
+    }
+
+    /** Add INDEX to the mask for P (which must not be EMPTY) and to
+     *  the mask of blocked squares, and update the free-neighbor counts
+     *  of the squares around it. */
+    private void set(Piece p, int index) {
+        int k = p.ordinal();
+        _key ^= ZOBRIST[k][index];
+        for (int nb : NEIGHBORS[index]) {
+            _free[nb] -= 1;
+        }
+        _version += 1;
+        if (index < LO_BITS) {
+            long bit = 1L << index;
+            _maskLo[k] |= bit;
+            _maskLo[BLOCKED] |= bit;
+        } else {
+            long bit = 1L << (index - LO_BITS);
+            _maskHi[k] |= bit;
+            _maskHi[BLOCKED] |= bit;
+        }
+    }
+
+    /** Remove INDEX from the mask for P (which must not be EMPTY) and
+     *  from the mask of blocked squares, and update the free-neighbor
+     *  counts of the squares around it. */
+    private void clear(Piece p, int index) {
+        int k = p.ordinal();
+        _key ^= ZOBRIST[k][index];
+        for (int nb : NEIGHBORS[index]) {
+            _free[nb] += 1;
+        }
+        _version += 1;
+        if (index < LO_BITS) {
+            long bit = ~(1L << index);
+            _maskLo[k] &= bit;
+            _maskLo[BLOCKED] &= bit;
+        } else {
+            long bit = ~(1L << (index - LO_BITS));
+            _maskHi[k] &= bit;
+            _maskHi[BLOCKED] &= bit;
+        }
     }
 
     /** Return true iff FROM - TO is an unblocked queen move on the current
@@ -185,39 +331,30 @@ class Board {
      *  squares along it, other than FROM and ASEMPTY, must be
      *  empty. ASEMPTY may be null, in which case it has no effect. */
     boolean isUnblockedMove(Square from, Square to, Square asEmpty) {
-        int distance = 0;
-        if (to != null && from != null && from.isQueenMove(to)) {
-            int dir = from.direction(to);
-            int colChange = DIR[dir][0];
-            int rowChange = DIR[dir][1];
-            if (dir == 0 || dir == 4) {
-                distance = Math.abs(to.row() - from.row());
-            } else {
-                distance = Math.abs(to.col() - from.col());
-            }
-            for (int i = 1; i < distance + 1; i++) {
-                int r = SIZE - from.row() - rowChange * i;
-                int c = from.col() + colChange * i;
-                if (r < 0 || c < 0) {
-                    return false;
-                }
-                if (asEmpty == null) {
-                    if (!board[r][c].equals("-")) {
-                        return false;
-                    }
-                } else {
-                    if (!board[r][c].equals("-")) {
-                        if (r != SIZE - asEmpty.row() || c != asEmpty.col()) {
-                            return false;
-                        }
-                    }
-                }
-            }
-        }
-        if (to == null || from == null) {
+        return from != null && to != null
+            && isUnblockedMove(from.index(), to.index(),
+                               asEmpty == null ? -1 : asEmpty.index());
+    }
+
+    /** Return true iff FROM - TO is an unblocked queen move on the current
+     *  board, as for isUnblockedMove(Square, Square, Square), where FROM,
+     *  TO, and ASEMPTY are square indices and ASEMPTY may be -1. */
+    private boolean isUnblockedMove(int from, int to, int asEmpty) {
+        if (Square.direction(from, to) < 0) {
             return false;
         }
-        return true;
+        long lo = Square.betweenLo(from, to), hi = Square.betweenHi(from, to);
+        if (to < LO_BITS) {
+            lo |= 1L << to;
+        } else {
+            hi |= 1L << (to - LO_BITS);
+        }
+        if (asEmpty >= LO_BITS) {
+            hi &= ~(1L << (asEmpty - LO_BITS));
+        } else if (asEmpty >= 0) {
+            lo &= ~(1L << asEmpty);
+        }
+        return (lo & _maskLo[BLOCKED]) == 0 && (hi & _maskHi[BLOCKED]) == 0;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
@@ -236,25 +373,30 @@ class Board {
      *  position. */
     boolean isLegal(Square from, Square to, Square spear) {
         return from != null && to != null && spear != null
-                && isLegal(from) && isUnblockedMove(from, to, null)
-                && isUnblockedMove(to, spear, from);
+            && isLegal(Move.pack(from.index(), to.index(), spear.index()));
     }
 
     /** Return true iff MOVE is a legal move in the current
      *  position. */
     boolean isLegal(Move move) {
-        return isLegal(move.from(), move.to(), move.spear());
+        return move != null && isLegal(move.packed());
+    }
+
+    /** Return true iff packed move MOVE (see Move.pack) is a legal move in
+     *  the current position.  MOVE may be Move.NONE. */
+    boolean isLegal(int move) {
+        if (move == Move.NONE) {
+            return false;
+        }
+        int from = Move.fromIndex(move), to = Move.toIndex(move);
+        return isSet(_turn, from) && isUnblockedMove(from, to, -1)
+            && isUnblockedMove(to, Move.spearIndex(move), from);
     }
 
     /** Move FROM-TO(SPEAR), assuming this is a legal move. */
     void makeMove(Square from, Square to, Square spear) {
-        if (isLegal(from) && isLegal(from, to, spear)) {
-            board[SIZE - to.row()][to.col()] = get(from).toString();
-            board[SIZE - from.row()][from.col()] = "-";
-            board[SIZE - spear.row()][spear.col()] = "S";
-            myStack.add(mv(from, to, spear));
-            _turn = _turn.opponent();
-            _numMoves += 1;
+        if (isLegal(from, to, spear)) {
+            makeMove(Move.pack(from.index(), to.index(), spear.index()));
         }
     }
 
@@ -263,19 +405,527 @@ class Board {
         makeMove(move.from(), move.to(), move.spear());
     }
 
+    /** Move according to packed move MOVE (see Move.pack), assuming it
+     *  is a legal move. */
+    void makeMove(int move) {
+        clear(_turn, Move.fromIndex(move));
+        set(_turn, Move.toIndex(move));
+        set(SPEAR, Move.spearIndex(move));
+        if (_numMoves == _history.length) {
+            _history = Arrays.copyOf(_history, 2 * _history.length);
+        }
+        _history[_numMoves] = move;
+        _turn = _turn.opponent();
+        _key ^= ZOBRIST_BLACK_TO_MOVE;
+        _numMoves += 1;
+        _winner = EMPTY;
+        assert _key == computeKey() : "hash key out of step with board";
+    }
+
     /** Undo one move.  Has no effect on the initial board. */
     void undo() {
-        if (!myStack.empty()) {
-            Move remove = myStack.pop();
-            board[SIZE - remove.spear().row()][remove.spear().col()] = "-";
-            board[SIZE - remove.from().row()]
-                    [remove.from().col()] = get(remove.to()).toString();
-            board[SIZE - remove.to().row()][remove.to().col()] = "-";
+        if (_numMoves > 0) {
             _numMoves -= 1;
+            int move = _history[_numMoves];
             _turn = _turn.opponent();
+            clear(SPEAR, Move.spearIndex(move));
+            clear(_turn, Move.toIndex(move));
+            set(_turn, Move.fromIndex(move));
+            _key ^= ZOBRIST_BLACK_TO_MOVE;
+            _winner = EMPTY;
+            assert _key == computeKey() : "hash key out of step with board";
         }
     }
 
+    /** Return the Zobrist hash key of the current position: the XOR of a
+     *  fixed random number for each (piece, square) pair on the board,
+     *  and of another for Black being on move.  It is maintained
+     *  incrementally as pieces are put, moved, and removed. */
+    long hashKey() {
+        return _key;
+    }
+
+    /** Return the hash key of the current position computed from scratch,
+     *  for checking the incrementally maintained value of hashKey(). */
+    long computeKey() {
+        long key = _turn == BLACK ? ZOBRIST_BLACK_TO_MOVE : 0;
+        for (Piece p : PIECES) {
+            int k = p.ordinal();
+            for (long lo = _maskLo[k]; lo != 0; lo &= lo - 1) {
+                key ^= ZOBRIST[k][Long.numberOfTrailingZeros(lo)];
+            }
+            for (long hi = _maskHi[k]; hi != 0; hi &= hi - 1) {
+                int s = LO_BITS + Long.numberOfTrailingZeros(hi);
+                key ^= ZOBRIST[k][s];
+            }
+        }
+        return key;
+    }
+
+    /** Store all legal moves for SIDE (regardless of whose turn it is)
+     *  in BUFFER as packed moves (see Move.pack), in the same order as
+     *  legalMoves(SIDE), and return their number.  BUFFER must have room
+     *  for MAX_MOVES moves.  Allocates nothing. */
+    int generateMoves(Piece side, int[] buffer) {
+        return generateMoves(_maskLo[side.ordinal()],
+                             _maskHi[side.ordinal()], buffer, 0);
+    }
+
+    /** Store the legal moves of the amazons on the squares in the mask
+     *  LO, HI (as for maskLo and maskHi) in BUFFER as packed moves,
+     *  starting at index COUNT, and return the new count. */
+    private int generateMoves(long lo, long hi, int[] buffer, int count) {
+        while (lo != 0 || hi != 0) {
+            int from;
+            if (lo != 0) {
+                from = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                from = LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (isBlocked(to)) {
+                        break;
+                    }
+                    count = generateThrows(from, to, buffer, count);
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Store in BUFFER, as packed moves, the legal moves for SIDE
+     *  (regardless of whose turn it is) by its amazons in contested
+     *  regions (see region), and return their number.  Moves in SIDE's
+     *  own regions differ only in how they use up SIDE's territory (see
+     *  FillingSolver.bestMove).  BUFFER must have room for MAX_MOVES
+     *  moves. */
+    int generateContestedMoves(Piece side, int[] buffer) {
+        markRegions();
+        int k = side == WHITE ? 0 : 1;
+        return generateMoves(_maskLo[side.ordinal()] & ~_uncontestedLo[k],
+                             _maskHi[side.ordinal()] & ~_uncontestedHi[k],
+                             buffer, 0);
+    }
+
+    /** Store in BUFFER, as packed moves, the legal moves for SIDE
+     *  (regardless of whose turn it is) by its amazons in regions
+     *  holding none of its opponent's, and return their number (0 at
+     *  once if it has no such amazons).  BUFFER must have room for
+     *  MAX_MOVES moves. */
+    int generateUncontestedMoves(Piece side, int[] buffer) {
+        markRegions();
+        int k = side == WHITE ? 0 : 1;
+        if ((_uncontestedLo[k] | _uncontestedHi[k]) == 0) {
+            return 0;
+        }
+        return generateMoves(_uncontestedLo[k], _uncontestedHi[k],
+                             buffer, 0);
+    }
+
+    /** Return the region holding the square with index INDEX, as the
+     *  index of a representative square, or -1 if INDEX holds a spear.
+     *  Regions are the sets of squares not holding spears that are
+     *  connected through steps in any of the eight directions.  Two
+     *  squares are in the same region iff the same representative is
+     *  returned for both (until the spears change).  Amazons never
+     *  leave their regions. */
+    int region(int index) {
+        if (isSet(SPEAR, index)) {
+            return -1;
+        }
+        updateRegions();
+        return find(index);
+    }
+
+    /** Return true iff the region of the square with index INDEX holds
+     *  amazons of both sides. */
+    boolean contested(int index) {
+        markRegions();
+        int r = region(index);
+        return r != -1 && _regionMarkVersion[r] == _version
+            && (_regionMarks[r] & BOTH_SIDES) == BOTH_SIDES;
+    }
+
+    /** Return the number of empty squares in regions that hold amazons
+     *  of SIDE but none of its opponent. */
+    int territory(Piece side) {
+        tallyTerritories();
+        return _territory[side == WHITE ? 0 : 1];
+    }
+
+    /** Return the number of regions holding amazons of both sides. */
+    int contestedRegions() {
+        markRegions();
+        return _contestedRegions;
+    }
+
+    /** Bring the union-find forest _regionParent up to date with the
+     *  spears on the board.  Union-find cannot split sets, so a spear
+     *  that may split a region forces a rebuild.  But the regions of
+     *  all other squares are the same with or without a spear on a
+     *  square whose open neighbors (those not holding spears) form at
+     *  most one connected group around it, and removing a spear only
+     *  joins its square to the regions of its open neighbors.  So when
+     *  the spears differ from those of the forest in at most
+     *  MAX_SPEAR_CHANGES squares, the changes are applied one at a
+     *  time, removals first: a new spear that passes that test is left
+     *  in its old set (region ignores it), and a removed spear is
+     *  joined to its neighbors (see rejoin).  Such changes are the
+     *  common case, so moving about a search tree rarely forces a
+     *  rebuild. */
+    private void updateRegions() {
+        long spearLo = _maskLo[SPEAR.ordinal()],
+            spearHi = _maskHi[SPEAR.ordinal()];
+        long lo = _regionSpearLo, hi = _regionSpearHi;
+        if (_regionsValid && lo == spearLo && hi == spearHi) {
+            return;
+        }
+        if (_regionsValid
+            && Long.bitCount(lo ^ spearLo) + Long.bitCount(hi ^ spearHi)
+               <= MAX_SPEAR_CHANGES) {
+            boolean kept = true;
+            for (int step = 0; step < 2 && kept; step += 1) {
+                long changeLo = step == 0 ? lo & ~spearLo : spearLo & ~lo,
+                    changeHi = step == 0 ? hi & ~spearHi : spearHi & ~hi;
+                while (kept && (changeLo != 0 || changeHi != 0)) {
+                    int sq;
+                    if (changeLo != 0) {
+                        sq = Long.numberOfTrailingZeros(changeLo);
+                        changeLo &= changeLo - 1;
+                        lo ^= 1L << sq;
+                    } else {
+                        sq = Long.numberOfTrailingZeros(changeHi);
+                        changeHi &= changeHi - 1;
+                        hi ^= 1L << sq;
+                        sq += LO_BITS;
+                    }
+                    if (step == 0) {
+                        kept = rejoin(sq, lo, hi,
+                                      has(_regionStaleLo, _regionStaleHi, sq));
+                    } else {
+                        kept = OPEN_GROUPS[openNeighbors(sq, lo, hi)] <= 1;
+                    }
+                }
+            }
+            if (kept) {
+                _regionStaleLo = _regionStaleLo & spearLo
+                    | spearLo & ~_regionSpearLo;
+                _regionStaleHi = _regionStaleHi & spearHi
+                    | spearHi & ~_regionSpearHi;
+                _regionSpearLo = spearLo;
+                _regionSpearHi = spearHi;
+                return;
+            }
+        }
+        for (int sq = 0; sq < SIZE * SIZE; sq += 1) {
+            _regionParent[sq] = (byte) sq;
+        }
+        for (int sq = 0; sq < SIZE * SIZE; sq += 1) {
+            if (!has(spearLo, spearHi, sq)) {
+                for (int nb : NEIGHBORS[sq]) {
+                    if (nb < sq && !has(spearLo, spearHi, nb)) {
+                        union(sq, nb);
+                    }
+                }
+            }
+        }
+        _regionSpearLo = spearLo;
+        _regionSpearHi = spearHi;
+        _regionStaleLo = _regionStaleHi = 0;
+        _regionsValid = true;
+    }
+
+    /** Join the square SQ, whose spear has been removed, to the sets of
+     *  its neighbors not in the spear mask LO, HI (as for maskLo and
+     *  maskHi) in _regionParent, and return true.  If SQ is STALE (left
+     *  in its old set when its spear was added), that set must be one
+     *  of theirs, or it would join them to a region SQ no longer
+     *  touches; if not, return false, and the forest must be rebuilt.
+     *  Spears that are not stale are in sets of their own. */
+    private boolean rejoin(int sq, long lo, long hi, boolean stale) {
+        if (stale) {
+            int root = find(sq);
+            boolean touching = false;
+            for (int nb : NEIGHBORS[sq]) {
+                if (!has(lo, hi, nb) && find(nb) == root) {
+                    touching = true;
+                    break;
+                }
+            }
+            if (!touching) {
+                return false;
+            }
+        }
+        for (int nb : NEIGHBORS[sq]) {
+            if (!has(lo, hi, nb)) {
+                union(sq, nb);
+            }
+        }
+        return true;
+    }
+
+    /** Return a mask of the neighbors of the square with index SQ that
+     *  are on the board and not in the spear mask LO, HI (as for maskLo
+     *  and maskHi), with bit k for direction k (as for Square.ray). */
+    private static int openNeighbors(int sq, long lo, long hi) {
+        int mask = 0;
+        for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+            int[] ray = Square.ray(sq, dir);
+            if (ray.length > 0 && !has(lo, hi, ray[0])) {
+                mask |= 1 << dir;
+            }
+        }
+        return mask;
+    }
+
+    /** Return the root of the set holding SQ in _regionParent, halving
+     *  the path to it on the way. */
+    private int find(int sq) {
+        while (_regionParent[sq] != sq) {
+            _regionParent[sq] = _regionParent[_regionParent[sq]];
+            sq = _regionParent[sq];
+        }
+        return sq;
+    }
+
+    /** Merge the sets holding squares A and B in _regionParent. */
+    private void union(int a, int b) {
+        int ra = find(a), rb = find(b);
+        if (ra != rb) {
+            _regionParent[Math.max(ra, rb)] = (byte) Math.min(ra, rb);
+        }
+    }
+
+    /** Mark the regions holding amazons of each side (see
+     *  _regionMarks), count the contested regions, and find the amazons
+     *  outside them (see _uncontestedLo), unless already done since the
+     *  board last changed.  This looks only at the
+     *  amazons, so it is cheap enough to do at every node of a
+     *  search. */
+    private void markRegions() {
+        if (_markVersion == _version) {
+            return;
+        }
+        updateRegions();
+        _contestedRegions = 0;
+        Arrays.fill(_uncontestedLo, 0L);
+        Arrays.fill(_uncontestedHi, 0L);
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (int mark = WHITE_MARK; mark <= BLACK_MARK; mark += 1) {
+                int k = (mark == WHITE_MARK ? WHITE : BLACK).ordinal();
+                long lo = _maskLo[k], hi = _maskHi[k];
+                while (lo != 0 || hi != 0) {
+                    int sq;
+                    if (lo != 0) {
+                        sq = Long.numberOfTrailingZeros(lo);
+                        lo &= lo - 1;
+                    } else {
+                        sq = LO_BITS + Long.numberOfTrailingZeros(hi);
+                        hi &= hi - 1;
+                    }
+                    int r = find(sq);
+                    if (pass == 0) {
+                        if (_regionMarkVersion[r] != _version) {
+                            _regionMarkVersion[r] = _version;
+                            _regionMarks[r] = 0;
+                        }
+                        _regionMarks[r] |= mark;
+                    } else if (_regionMarks[r] == BOTH_SIDES) {
+                        _regionMarks[r] |= COUNTED_MARK;
+                        _contestedRegions += 1;
+                    } else if ((_regionMarks[r] & BOTH_SIDES) != BOTH_SIDES) {
+                        int t = mark == WHITE_MARK ? 0 : 1;
+                        if (sq < LO_BITS) {
+                            _uncontestedLo[t] |= 1L << sq;
+                        } else {
+                            _uncontestedHi[t] |= 1L << (sq - LO_BITS);
+                        }
+                    }
+                }
+            }
+        }
+        _markVersion = _version;
+    }
+
+    /** Compute the territories of both sides, unless already done since
+     *  the board last changed. */
+    private void tallyTerritories() {
+        if (_territoryVersion == _version) {
+            return;
+        }
+        markRegions();
+        _territory[0] = _territory[1] = 0;
+        for (int sq = 0; sq < SIZE * SIZE; sq += 1) {
+            if (isBlocked(sq)) {
+                continue;
+            }
+            int r = find(sq);
+            if (_regionMarkVersion[r] == _version) {
+                switch (_regionMarks[r] & BOTH_SIDES) {
+                case WHITE_MARK:
+                    _territory[0] += 1;
+                    break;
+                case BLACK_MARK:
+                    _territory[1] += 1;
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        _territoryVersion = _version;
+    }
+
+    /** Store the amazon moves of SIDE (regardless of whose turn it is),
+     *  the first halves of the moves listed by generateMoves and in the
+     *  same order, in BUFFER, and return their number.  Each is stored
+     *  as the packed move that throws the spear back to the square the
+     *  amazon left, which is always legal.  BUFFER must have room for
+     *  MAX_MOVES moves.  Allocates nothing. */
+    int generateAmazonMoves(Piece side, int[] buffer) {
+        int count = 0;
+        long lo = _maskLo[side.ordinal()], hi = _maskHi[side.ordinal()];
+        while (lo != 0 || hi != 0) {
+            int from;
+            if (lo != 0) {
+                from = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                from = LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (isBlocked(to)) {
+                        break;
+                    }
+                    buffer[count] = Move.pack(from, to, from);
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Store the legal packed moves that make the same amazon move as
+     *  packed move MOVE, one for each possible spear throw, in BUFFER,
+     *  in the order generateMoves lists them, and return their number.
+     *  BUFFER must have room for MAX_MOVES moves. */
+    int generateThrows(int move, int[] buffer) {
+        return generateThrows(Move.fromIndex(move), Move.toIndex(move),
+                              buffer, 0);
+    }
+
+    /** Return the number of legal moves for SIDE (regardless of whose
+     *  turn it is), as generateMoves would, without listing them.  If an
+     *  amazon on F can move to T in direction D, the spears it can then
+     *  throw are those reachable from T with F blocked (see reach), plus
+     *  F itself and the run of empty squares beyond F in direction D;
+     *  and that run is the same for every T along D. */
+    int countLegalMoves(Piece side) {
+        int count = 0;
+        long lo = _maskLo[side.ordinal()], hi = _maskHi[side.ordinal()];
+        while (lo != 0 || hi != 0) {
+            int from;
+            if (lo != 0) {
+                from = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                from = LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                int[] ray = Square.ray(from, dir);
+                int steps = run(from, dir);
+                for (int k = 0; k < steps; k += 1) {
+                    count += reach(ray[k]);
+                }
+                if (steps > 0) {
+                    count += steps * (1 + run(from, dir ^ OPPOSITE));
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Return the number of squares the amazons of SIDE can move to,
+     *  counting a square once for each amazon that can reach it: a
+     *  cheaper mobility measure than countLegalMoves. */
+    int queenReach(Piece side) {
+        int count = 0;
+        long lo = _maskLo[side.ordinal()], hi = _maskHi[side.ordinal()];
+        while (lo != 0 || hi != 0) {
+            int from;
+            if (lo != 0) {
+                from = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                from = LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                count += run(from, dir);
+            }
+        }
+        return count;
+    }
+
+    /** Return the number of empty squares reachable by a queen move from
+     *  the square with index FROM.  Results are remembered until the
+     *  board next changes. */
+    private int reach(int from) {
+        if (_reachVersion[from] != _version) {
+            int count = 0;
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                count += run(from, dir);
+            }
+            _reach[from] = count;
+            _reachVersion[from] = _version;
+        }
+        return _reach[from];
+    }
+
+    /** Return the number of empty squares in a row starting next to the
+     *  square with index FROM in direction DIR.  Finds the nearest
+     *  blocked square on the ray from the ray's mask, without walking
+     *  it. */
+    private int run(int from, int dir) {
+        long lo = Square.rayLo(from, dir) & _maskLo[BLOCKED],
+            hi = Square.rayHi(from, dir) & _maskHi[BLOCKED];
+        if (lo == 0 && hi == 0) {
+            return Square.ray(from, dir).length;
+        }
+        int step = Square.step(dir), nearest;
+        if (step > 0) {
+            nearest = lo != 0 ? Long.numberOfTrailingZeros(lo)
+                : LO_BITS + Long.numberOfTrailingZeros(hi);
+        } else {
+            nearest = hi != 0 ? 2 * LO_BITS - 1 - Long.numberOfLeadingZeros(hi)
+                : LO_BITS - 1 - Long.numberOfLeadingZeros(lo);
+        }
+        return (nearest - from) / step - 1;
+    }
+
+    /** Store the packed moves FROM-TO(s) for every square s reachable
+     *  from TO (treating FROM as empty) in BUFFER, starting at index
+     *  COUNT, and return the new count. */
+    private int generateThrows(int from, int to, int[] buffer, int count) {
+        int move = Move.pack(from, to, 0);
+        for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+            for (int spear : Square.ray(to, dir)) {
+                if (spear != from && isBlocked(spear)) {
+                    break;
+                }
+                buffer[count] = move | Move.pack(0, 0, spear);
+                count += 1;
+            }
+        }
+        return count;
+    }
+
     /** Return an Iterator over the Squares that are reachable by an
      *  unblocked queen move from FROM. Does not pay attention to what
      *  piece (if any) is on FROM, nor to whether the game is finished.
@@ -298,57 +948,61 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
-    /** An iterator used by reachableFrom. */
+    /** An iterator used by reachableFrom.  Walks each ray from the
+     *  starting square once, stopping at the first blocked square. */
     private class ReachableFromIterator implements Iterator<Square> {
 
         /** Iterator of all squares reachable by queen move from FROM,
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
-            _from = from;
-            _dir = -1;
+            _from = from.index();
+            _dir = 0;
             _steps = 0;
-            _asEmpty = asEmpty;
+            _ray = Square.ray(_from, _dir);
+            _asEmpty = asEmpty == null ? -1 : asEmpty.index();
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            return _dir < 8;
+            return _dir < Square.DIRECTIONS;
         }
 
         @Override
         public Square next() {
-            Square to = _from.queenMove(_dir, _steps);
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Square to = Square.sq(_ray[_steps]);
+            _steps += 1;
             toNext();
             return to;
         }
 
         /** Advance _dir and _steps, so that the next valid Square is
-         *  _steps steps in direction _dir from _from. */
+         *  _ray[_steps]. */
         private void toNext() {
-            if (_dir == -1) {
-                _dir = 0;
-            }
-            Square sub = _from.queenMove(_dir, _steps + 1);
-            if (sub == null || !isUnblockedMove(_from, sub, _asEmpty)) {
+            while (_steps >= _ray.length
+                   || (_ray[_steps] != _asEmpty && isBlocked(_ray[_steps]))) {
                 _dir += 1;
                 _steps = 0;
-                if (hasNext()) {
-                    toNext();
+                if (!hasNext()) {
+                    return;
                 }
-            } else {
-                _steps += 1;
+                _ray = Square.ray(_from, _dir);
             }
         }
 
-        /** Starting square. */
-        private Square _from;
+        /** Index of the starting square. */
+        private int _from;
         /** Current direction. */
         private int _dir;
-        /** Current distance. */
+        /** Number of squares along _ray already returned. */
         private int _steps;
-        /** Square treated as empty. */
-        private Square _asEmpty;
+        /** Indices of the squares in direction _dir from _from. */
+        private int[] _ray;
+        /** Index of the square treated as empty, or -1. */
+        private int _asEmpty;
     }
 
     /** An iterator used by legalMoves. */
@@ -356,65 +1010,57 @@ class Board {
 
         /** All legal moves for SIDE (WHITE or BLACK). */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
+            _amazonsLo = _maskLo[side.ordinal()];
+            _amazonsHi = _maskHi[side.ordinal()];
             _spearThrows = NO_SQUARES;
             _pieceMoves = NO_SQUARES;
-            _fromPiece = side;
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            return _startingSquares.hasNext();
+            return _spearThrows.hasNext();
         }
 
         @Override
         public Move next() {
-            if (!_spearThrows.hasNext()) {
-                if (!_pieceMoves.hasNext()) {
-                    toNext();
-                }
-                _nextSquare = _pieceMoves.next();
-                _spearThrows = reachableFrom(_nextSquare, _start);
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
             Move m = mv(_start, _nextSquare, _spearThrows.next());
-            if (!_pieceMoves.hasNext()) {
-                toNext();
-            }
+            toNext();
             return m;
         }
 
         /** Advance so that the next valid Move is
          *  _start-_nextSquare(sp), where sp is the next value of
-         *  _spearThrows. */
+         *  _spearThrows, or so that hasNext() is false if there are no
+         *  more moves. */
         private void toNext() {
-            if (_startingSquares.hasNext()) {
-                _start = _startingSquares.next();
-                if (get(_start.col(), _start.row()) == _fromPiece) {
-                    temp = Square.sq(_start.col(), _start.row() - 1);
+            while (!_spearThrows.hasNext()) {
+                if (_pieceMoves.hasNext()) {
+                    _nextSquare = _pieceMoves.next();
+                    _spearThrows = reachableFrom(_nextSquare, _start);
+                } else if (_amazonsLo != 0) {
+                    _start = Square.sq(Long.numberOfTrailingZeros(_amazonsLo));
+                    _amazonsLo &= _amazonsLo - 1;
+                    _pieceMoves = reachableFrom(_start, null);
+                } else if (_amazonsHi != 0) {
+                    _start = Square.sq(LO_BITS + Long.numberOfTrailingZeros(
+                                           _amazonsHi));
+                    _amazonsHi &= _amazonsHi - 1;
                     _pieceMoves = reachableFrom(_start, null);
-                    if (_pieceMoves.hasNext()) {
-                        _nextSquare = _pieceMoves.next();
-                        _spearThrows = reachableFrom(_nextSquare, _start);
-                    } else {
-                        toNext();
-                    }
-                } else if (_startingSquares.hasNext()) {
-                    toNext();
                 } else {
-                    _start = temp;
+                    return;
                 }
             }
         }
 
-        /** a temporary holder. */
-        private Square temp;
-        /** Color of side whose moves we are iterating. */
-        private Piece _fromPiece;
+        /** Low and high words of the mask of amazons not yet used as
+         *  starting squares. */
+        private long _amazonsLo, _amazonsHi;
         /** Current starting square. */
         private Square _start;
-        /** Remaining starting squares to consider. */
-        private Iterator<Square> _startingSquares;
         /** Current piece's new position. */
         private Square _nextSquare;
         /** Remaining moves from _start to consider. */
@@ -425,27 +1071,192 @@ class Board {
 
     @Override
     public String toString() {
-        String boardString = "";
-        for (int i = 0; i < SIZE; i++) {
-            boardString += "   ";
-            for (int j = 0; j < SIZE; j++) {
-                boardString += board[i][j];
-                if (j < SIZE - 1) {
-                    boardString += " ";
+        StringBuilder boardString = new StringBuilder();
+        for (int row = SIZE; row >= 1; row -= 1) {
+            boardString.append("   ");
+            for (int col = 0; col < SIZE; col += 1) {
+                boardString.append(get(col, row));
+                if (col < SIZE - 1) {
+                    boardString.append(" ");
                 }
             }
-            boardString += "\n";
+            boardString.append("\n");
         }
-        return boardString;
+        return boardString.toString();
     }
 
     /** An empty iterator for initialization. */
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
 
+    /** The pieces that occupy squares. */
+    private static final Piece[] PIECES = { WHITE, BLACK, SPEAR };
+
+    /** Seed for the Zobrist numbers.  Fixed, so that hash keys are the
+     *  same in every run of the program. */
+    private static final long ZOBRIST_SEED = 0x616d617a6f6e73L;
+
+    /** ZOBRIST[p][s] is the hash-key contribution of a piece with ordinal
+     *  p on the square with index s (zero for EMPTY). */
+    private static final long[][] ZOBRIST =
+        new long[Piece.values().length][SIZE * SIZE];
+
+    /** The hash-key contribution of Black being on move. */
+    private static final long ZOBRIST_BLACK_TO_MOVE;
+
+    static {
+        Random rand = new Random(ZOBRIST_SEED);
+        for (Piece p : PIECES) {
+            for (int i = 0; i < SIZE * SIZE; i += 1) {
+                ZOBRIST[p.ordinal()][i] = rand.nextLong();
+            }
+        }
+        ZOBRIST_BLACK_TO_MOVE = rand.nextLong();
+    }
+
+    /** Return the indices of the squares adjacent to the square with
+     *  index INDEX, in any of the eight directions.  The result must not
+     *  be modified. */
+    static int[] neighbors(int index) {
+        return NEIGHBORS[index];
+    }
+
+    /** NEIGHBORS[s] holds the indices of the squares adjacent to the
+     *  square with index s, in any of the eight directions. */
+    private static final int[][] NEIGHBORS = new int[SIZE * SIZE][];
+
+    /** NEIGHBOR_COUNTS[s] is the length of NEIGHBORS[s]. */
+    private static final byte[] NEIGHBOR_COUNTS = new byte[SIZE * SIZE];
+
+    static {
+        for (int s = 0; s < SIZE * SIZE; s += 1) {
+            int[] nbs = new int[Square.DIRECTIONS];
+            int n = 0;
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                int[] ray = Square.ray(s, dir);
+                if (ray.length > 0) {
+                    nbs[n] = ray[0];
+                    n += 1;
+                }
+            }
+            NEIGHBORS[s] = Arrays.copyOf(nbs, n);
+            NEIGHBOR_COUNTS[s] = (byte) n;
+        }
+    }
+
+    /** The number of empty squares adjacent to each square, indexed by
+     *  square index.  Maintained by set and clear, so that an amazon
+     *  with no moves is one with a count of 0. */
+    private final byte[] _free = new byte[SIZE * SIZE];
+
+    /** The most changes of spears that updateRegions tries to apply to
+     *  the union-find forest before rebuilding it. */
+    private static final int MAX_SPEAR_CHANGES = 8;
+
+    /** OPEN_GROUPS[m] is the number of groups into which the squares
+     *  in the mask m of a square's neighbors (as for openNeighbors)
+     *  fall when connected by steps in any of the eight directions
+     *  among themselves.  Directions go around the square in order, so
+     *  two neighbors are adjacent iff their directions differ by one
+     *  (mod 8), or by two starting from an even (orthogonal) one. */
+    private static final byte[] OPEN_GROUPS = new byte[1 << 8];
+
+    static {
+        for (int mask = 0; mask < OPEN_GROUPS.length; mask += 1) {
+            int seen = 0, groups = 0;
+            for (int d = 0; d < Square.DIRECTIONS; d += 1) {
+                if ((mask & ~seen & (1 << d)) == 0) {
+                    continue;
+                }
+                groups += 1;
+                int group = 1 << d, grown = 0;
+                while (group != grown) {
+                    grown = group;
+                    for (int e = 0; e < Square.DIRECTIONS; e += 1) {
+                        if ((grown & (1 << e)) == 0) {
+                            continue;
+                        }
+                        group |= mask & (1 << ((e + 1) & 7)
+                                         | 1 << ((e + 7) & 7));
+                        if (e % 2 == 0) {
+                            group |= mask & (1 << ((e + 2) & 7)
+                                             | 1 << ((e + 6) & 7));
+                        }
+                    }
+                }
+                seen |= group;
+            }
+            OPEN_GROUPS[mask] = (byte) groups;
+        }
+    }
+
+    /** XORing a direction number with OPPOSITE gives the opposite
+     *  direction. */
+    private static final int OPPOSITE = Square.DIRECTIONS / 2;
+
+    /** Number of changes made to the blocked squares; the cached values
+     *  in _reach are those whose _reachVersion entry equals it. */
+    private long _version = 1;
+
+    /** Cached results of reach, indexed by square index. */
+    private final int[] _reach = new int[SIZE * SIZE];
+
+    /** The value of _version when each entry of _reach was computed. */
+    private final long[] _reachVersion = new long[SIZE * SIZE];
+
+    /** Union-find forest over square indices whose sets, restricted to
+     *  squares without spears, are the regions (see region).  Each entry
+     *  is a parent's index; roots are their own parents. */
+    private final byte[] _regionParent = new byte[SIZE * SIZE];
+
+    /** The spears (as for maskLo and maskHi) for which _regionParent
+     *  gives the regions, if _regionsValid. */
+    private long _regionSpearLo, _regionSpearHi;
+
+    /** The spears in _regionSpearLo, _regionSpearHi that were left in
+     *  the sets of the regions they were thrown into, rather than in
+     *  sets of their own (see updateRegions). */
+    private long _regionStaleLo, _regionStaleHi;
+
+    /** True iff _regionParent has been built for this board. */
+    private boolean _regionsValid;
+
+    /** Bits of _regionMarks: the region holds white amazons, black
+     *  amazons, or both; and the region has been counted as contested. */
+    private static final int
+        WHITE_MARK = 1, BLACK_MARK = 2,
+        BOTH_SIDES = WHITE_MARK | BLACK_MARK, COUNTED_MARK = 4;
+
+    /** Marks of each region holding amazons, indexed by the region's
+     *  root, as of markRegions.  Entries are valid only where
+     *  _regionMarkVersion holds the current _version. */
+    private final byte[] _regionMarks = new byte[SIZE * SIZE];
+
+    /** The value of _version when each entry of _regionMarks was set. */
+    private final long[] _regionMarkVersion = new long[SIZE * SIZE];
+
+    /** Number of contested regions, as of markRegions. */
+    private int _contestedRegions;
+
+    /** The amazons of White ([0]) and Black ([1]) in regions holding
+     *  none of the other side's (as for maskLo and maskHi), as of
+     *  markRegions. */
+    private final long[] _uncontestedLo = new long[2],
+        _uncontestedHi = new long[2];
+
+    /** Territories of White ([0]) and Black ([1]) (see territory), as of
+     *  tallyTerritories. */
+    private final int[] _territory = new int[2];
+
+    /** The values of _version when markRegions and tallyTerritories
+     *  last ran (0 if never). */
+    private long _markVersion, _territoryVersion;
+
     /** Piece whose turn it is (BLACK or WHITE). */
     private Piece _turn;
-    /** Cached value of winner on this board, or EMPTY if it has not been
-     *  computed. */
+    /** Hash key of the current position (see hashKey). */
+    private long _key;
+    /** Cached value of winner on this board (null if there is none yet),
+     *  or EMPTY if it has not been computed since the board changed. */
     private Piece _winner;
 }
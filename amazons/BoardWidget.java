@@ -87,18 +87,15 @@ class BoardWidget extends Pad {
     @Override
     public synchronized void paintComponent(Graphics2D g) {
         drawGrid(g);
-        for (int i = 0; i < 10; i++) {
-            for (int j = 0; j < 10; j++) {
-                if (_board.boardgetter()[i][j].equals("W")) {
-                    drawQueen(g, Square.sq((9 * 11)
-                            - (i * 10 + (9 - j))), WHITE);
-                } else if (_board.boardgetter()[i][j].equals("B")) {
-                    drawQueen(g, Square.sq((9 * 11)
-                            - (i * 10 + (9 - j))), BLACK);
-                } else if (_board.boardgetter()[i][j].equals("S")) {
-                    g.setColor(SPEAR_COLOR);
-                    g.fillRect(cy(9 - j), cx(i), SQUARE_SIDE, SQUARE_SIDE);
-                }
+        for (int i = 0; i < Board.SIZE * Board.SIZE; i++) {
+            Square s = Square.sq(i);
+            Piece p = _board.get(s);
+            if (p == WHITE || p == BLACK) {
+                drawQueen(g, s, p);
+            } else if (p == SPEAR) {
+                g.setColor(SPEAR_COLOR);
+                g.fillRect(cx(s.col()), cy(s.row() - 1),
+                        SQUARE_SIDE, SQUARE_SIDE);
             }
         }
         if (_holder.size() >= 1) {
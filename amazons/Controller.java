@@ -1,6 +1,7 @@
 package amazons;
 
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -40,17 +41,21 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        resetClocks();
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         while (_playing) {
             _view.update(_board);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
+                Piece side = _board.turn();
+                long start = System.nanoTime();
+                if (side == WHITE) {
                     command = _white.myMove();
                 } else {
                     command = _black.myMove();
                 }
+                _timeUsed[side.ordinal()] += System.nanoTime() - start;
             } else {
                 command = _nonPlayer.myMove();
                 if (command == null) {
@@ -74,6 +79,12 @@ final class Controller {
         return _board;
     }
 
+    /** Return the player of SIDE (WHITE or BLACK) in the current
+     *  game. */
+    Player player(Piece side) {
+        return side == WHITE ? _white : _black;
+    }
+
     /** Return a random integer in the range 0 inclusive to U, exclusive.
      *  Available for use by AIs that use random selections in some cases.
      *  Once setRandomSeed is called with a particular value, this method
@@ -89,6 +100,30 @@ final class Controller {
         _randGen.setSeed(seed);
     }
 
+    /** Return the most time, in nanoseconds, that a player should spend
+     *  on one move. */
+    long moveTimeLimit() {
+        return _moveTimeLimit;
+    }
+
+    /** Return the time, in nanoseconds, left on the game clock of SIDE:
+     *  the game time limit less the time SIDE has spent choosing moves
+     *  so far in this game (never less than 0). */
+    long timeRemaining(Piece side) {
+        return Math.max(0, _gameTimeLimit - _timeUsed[side.ordinal()]);
+    }
+
+    /** Return the template for the evaluation function that automated
+     *  players should use (see Evaluator.create). */
+    Evaluator evaluator() {
+        return _evaluator;
+    }
+
+    /** Restart both players' game clocks. */
+    private void resetClocks() {
+        Arrays.fill(_timeUsed, 0);
+    }
+
     /** Return the next line of input, or null if there is no more. First
      *  prompts for the line.  Trims the returned line (if any) of all
      *  leading and trailing whitespace. */
@@ -117,6 +152,12 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
+    /** Report packed move MOVE (see Move.pack) by calling reportMove on
+     *  my reporter. */
+    void reportMove(int move) {
+        _reporter.reportMove(Move.mv(move));
+    }
+
     /** A Command is pair (<pattern>, <processor>), where <pattern> is a
      *  Matcher that matches instances of a particular command, and
      *  <processor> is a functional object whose .accept method takes a
@@ -152,7 +193,12 @@ final class Controller {
         new Command("manual\\s+white", this::manualWhite),
         new Command("auto\\s+black", this::autoBlack),
         new Command("auto\\s+white", this::autoWhite),
-        new Command("undo", this::undoMove)
+        new Command("undo", this::undoMove),
+        new Command("time\\s+(\\d+(?:\\.\\d*)?)\\s+(\\d+(?:\\.\\d*)?)$",
+                    this::doTime),
+        new Command("eval\\s+(\\w+)$", this::doEval),
+        new Command("(perft|divide)\\s+(\\d{1,2})(?:\\s+(\\d{1,2}))?$",
+                    this::doPerft)
     };
 
     /** Undos a move.
@@ -168,9 +214,20 @@ final class Controller {
      * @param mat the string.
      * */
     private void mover(Matcher mat) {
-        board().makeMove(Move.mv(mat.group()));
+        makeMove(Move.parse(mat.group()));
+    }
+
+    /** Make packed move MOVE (see Move.pack) on the board, announcing
+     *  the winner if it ends the game.  MOVE may be Move.NONE, which,
+     *  like any illegal move, is an error. */
+    void makeMove(int move) {
+        if (!board().isLegal(move)) {
+            throw error("Invalid move.");
+        }
+        board().makeMove(move);
         _winner = board().winner();
         if (_winner != null) {
+            finishPlayers();
             if (!board().turn().toString().equals("B")) {
                 reportNote("Black wins.");
             } else {
@@ -184,6 +241,7 @@ final class Controller {
      * @param mat the string.
      * */
     private void manualWhite(Matcher mat) {
+        _white.finish();
         _white = _manualPlayerTemplate.create(WHITE, this);
     }
 
@@ -192,6 +250,7 @@ final class Controller {
      * @param mat the string.
      * */
     private void manualBlack(Matcher mat) {
+        _black.finish();
         _black = _manualPlayerTemplate.create(BLACK, this);
     }
 
@@ -200,6 +259,7 @@ final class Controller {
      * @param mat the string.
      * */
     private void autoWhite(Matcher mat) {
+        _white.finish();
         _white = _autoPlayerTemplate.create(WHITE, this);
     }
 
@@ -209,6 +269,7 @@ final class Controller {
      * @param mat the string.
      * */
     private void autoBlack(Matcher mat) {
+        _black.finish();
         _black = _autoPlayerTemplate.create(BLACK, this);
     }
 
@@ -241,12 +302,55 @@ final class Controller {
 
     /** Command "new". */
     private void doNew(Matcher unused) {
+        finishPlayers();
         _board.init();
+        resetClocks();
         _winner = null;
     }
 
+    /** Tell both players that they are done with the current game (see
+     *  Player.finish). */
+    private void finishPlayers() {
+        _white.finish();
+        _black.finish();
+    }
+
+    /** Command "time MOVE GAME", where MOVE and GAME, the first and
+     *  second groups of MAT, are the most seconds an automated player
+     *  may spend on one move and on all its moves in a game. */
+    private void doTime(Matcher mat) {
+        _moveTimeLimit = (long) (Double.parseDouble(mat.group(1)) * 1e9);
+        _gameTimeLimit = (long) (Double.parseDouble(mat.group(2)) * 1e9);
+    }
+
+    /** Command "eval NAME", where NAME, the first group of MAT, names
+     *  the evaluation function automated players are to use (see
+     *  Evaluator.named). */
+    private void doEval(Matcher mat) {
+        Evaluator evaluator = Evaluator.named(mat.group(1));
+        if (evaluator == null) {
+            throw error("Unknown evaluator: %s", mat.group(1));
+        }
+        _evaluator = evaluator;
+    }
+
+    /** Command "perft DEPTH [THREADS]" or "divide DEPTH [THREADS]",
+     *  where the command name, DEPTH and THREADS (default 1) are the
+     *  groups of MAT: print the number of positions reached from the
+     *  current one by all sequences of DEPTH legal moves, and the rate
+     *  at which they were counted, after the counts below each move
+     *  for "divide" (see Perft.report). */
+    private void doPerft(Matcher mat) {
+        int threads = mat.group(3) == null ? 1
+            : Integer.parseInt(mat.group(3));
+        Perft.report(System.out, new Board(_board),
+                     Integer.parseInt(mat.group(2)), threads,
+                     mat.group(1).equals("divide"));
+    }
+
     /** Command "quit". */
     private void doQuit(Matcher unused) {
+        finishPlayers();
         _playing = false;
     }
 
@@ -267,6 +371,25 @@ final class Controller {
     /** The board. */
     private Board _board = new Board();
 
+    /** Default limits on time per move and per game for each player, in
+     *  nanoseconds. */
+    private static final long
+        DEFAULT_MOVE_TIME = 3_000_000_000L,
+        DEFAULT_GAME_TIME = 30_000_000_000L;
+
+    /** The current limits on time per move and per game for each player,
+     *  in nanoseconds. */
+    private long
+        _moveTimeLimit = DEFAULT_MOVE_TIME,
+        _gameTimeLimit = DEFAULT_GAME_TIME;
+
+    /** Nanoseconds spent by each side (indexed by Piece ordinal) choosing
+     *  moves in the current game. */
+    private long[] _timeUsed = new long[Piece.values().length];
+
+    /** Template for the evaluation function of automated players. */
+    private Evaluator _evaluator = new MobilityEvaluator();
+
     /** The winning side of the current game. */
     private Piece _winner;
 
@@ -0,0 +1,39 @@
+package amazons;
+
+/** A static evaluation function for Amazons positions, used at the
+ *  leaves of the search.  Evaluators may keep scratch space, so each
+ *  searching thread uses its own, made by create from a template.
+ *  @author William Tai
+ */
+interface Evaluator {
+
+    /** Return a heuristic value for BOARD, on which neither side has
+     *  won: positive if it favors White, negative if it favors Black,
+     *  and less in magnitude than Searcher.WINNING_VALUE. */
+    int score(Board board);
+
+    /** Return a new Evaluator with the same concrete type and settings
+     *  as me, but its own scratch space. */
+    Evaluator create();
+
+    /** Return the name by which I am selected (see named). */
+    String name();
+
+    /** Return a new Evaluator of the kind called NAME ("mobility",
+     *  "territory", "bitboard" or "vector"), with default settings, or
+     *  null if there is no such kind. */
+    static Evaluator named(String name) {
+        switch (name) {
+        case MobilityEvaluator.NAME:
+            return new MobilityEvaluator();
+        case TerritoryEvaluator.NAME:
+            return new TerritoryEvaluator();
+        case BitboardTerritoryEvaluator.NAME:
+            return new BitboardTerritoryEvaluator();
+        case VectorTerritoryEvaluator.NAME:
+            return new VectorTerritoryEvaluator();
+        default:
+            return null;
+        }
+    }
+}
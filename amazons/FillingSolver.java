@@ -0,0 +1,311 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+import static amazons.Board.HI_SQUARES;
+import static amazons.Board.LO_BITS;
+import static amazons.Board.bitHi;
+import static amazons.Board.bitLo;
+import static amazons.Board.has;
+
+/** Plays the filling phase of a game, when no region (see Board.region)
+ *  holds amazons of both sides.  Each side can then only use up its own
+ *  regions, and the side to move loses once it has made all the moves
+ *  its regions allow, so the best move is the one that leaves the most
+ *  moves for later.  Each move fills one more square, so a region of n
+ *  empty squares allows at most n moves, and usually exactly n.  But in
+ *  a "defective" region some squares can never all be used (a square
+ *  reached only from a dead end, say).  A region reaching at most
+ *  EXACT_LIMIT empty squares is therefore solved exactly, by a search
+ *  of its moves whose results are memoized; a larger region is counted
+ *  as one move per empty square its amazons can reach.  Either way,
+ *  squares no amazon can reach do not count.  The memo is kept between
+ *  calls, so a game's filling phase solves each small region once.  It
+ *  is a fixed table of primitive keys and values, each new entry
+ *  replacing the one in its slot, so that lookups allocate nothing.
+ *  @author William Tai
+ */
+class FillingSolver {
+
+    /** The most empty squares in a region that is solved exactly. */
+    static final int EXACT_LIMIT = 12;
+
+    /** Look up the values of small regions in TABLEBASE (none if null)
+     *  before solving them. */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the number of moves SIDE can still make on BOARD, which
+     *  must have no contested regions: the sum over the regions holding
+     *  amazons of SIDE of their exact values or estimates (see the class
+     *  comment). */
+    int moves(Board board, Piece side) {
+        _estimated = false;
+        return value(~board.maskLo(EMPTY), ~board.maskHi(EMPTY) & HI_SQUARES,
+                     board.maskLo(side), board.maskHi(side));
+    }
+
+    /** Return true iff the last call to moves counted every region
+     *  exactly (solving it or finding it in my tablebase), rather than
+     *  estimating any of them, so that its result is the true number of
+     *  moves left. */
+    boolean exact() {
+        return !_estimated;
+    }
+
+    /** Return the best move for the side to move on BOARD, which must
+     *  have no contested regions and a legal move, as a packed move (see
+     *  bestMove(BOARD, SIDE)). */
+    int bestMove(Board board) {
+        return bestMove(board, board.turn());
+    }
+
+    /** Return the best move for SIDE on BOARD (regardless of whose turn
+     *  it is) by an amazon in a region holding no amazon of the other
+     *  side, as a packed move, or Move.NONE if there is none: one that
+     *  leaves the most moves (as for moves) in the amazon's region.
+     *  Among equally good moves, prefers throwing spears into squares
+     *  with the fewest empty neighbors, which fills regions from their
+     *  dead ends inwards.  BOARD is not modified. */
+    int bestMove(Board board, Piece side) {
+        long emptyLo = ~board.maskLo(EMPTY),
+            emptyHi = ~board.maskHi(EMPTY) & HI_SQUARES;
+        long amazonsLo = board.maskLo(side), amazonsHi = board.maskHi(side);
+        int n = board.generateUncontestedMoves(side, _moves);
+        if (n == 0) {
+            return Move.NONE;
+        }
+        Arrays.fill(_regionValue, -1);
+        int best = Move.NONE, bestLoss = Integer.MAX_VALUE,
+            bestNeighbors = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i += 1) {
+            int move = _moves[i];
+            int from = Move.fromIndex(move), to = Move.toIndex(move),
+                spear = Move.spearIndex(move);
+            fill(from, emptyLo | amazonsLo, emptyHi | amazonsHi);
+            long regionLo = _fillLo, regionHi = _fillHi;
+            if (_regionValue[from] == -1) {
+                _regionValue[from] = value(regionLo & emptyLo,
+                                           regionHi & emptyHi,
+                                           regionLo & amazonsLo,
+                                           regionHi & amazonsHi);
+            }
+            long afterLo = (regionLo & emptyLo | bitLo(from))
+                & ~bitLo(to) & ~bitLo(spear),
+                afterHi = (regionHi & emptyHi | bitHi(from))
+                & ~bitHi(to) & ~bitHi(spear);
+            int loss = _regionValue[from]
+                - value(afterLo, afterHi,
+                        regionLo & amazonsLo & ~bitLo(from) | bitLo(to),
+                        regionHi & amazonsHi & ~bitHi(from) | bitHi(to));
+            if (loss > bestLoss) {
+                continue;
+            }
+            int neighbors = 0;
+            for (int nb : Board.neighbors(spear)) {
+                if (has(afterLo, afterHi, nb)) {
+                    neighbors += 1;
+                }
+            }
+            if (loss < bestLoss || neighbors < bestNeighbors) {
+                best = move;
+                bestLoss = loss;
+                bestNeighbors = neighbors;
+            }
+        }
+        return best;
+    }
+
+    /** Return the number of moves the amazons in AMAZONSLO, AMAZONSHI
+     *  can make over the empty squares EMPTYLO, EMPTYHI (as for
+     *  Board.maskLo and Board.maskHi), adding up the regions they hold,
+     *  each looked up in my tablebase, if I have one and it is there,
+     *  or else solved exactly or estimated (see the class comment). */
+    private int value(long emptyLo, long emptyHi,
+                      long amazonsLo, long amazonsHi) {
+        int total = 0;
+        long leftLo = amazonsLo, leftHi = amazonsHi;
+        while ((leftLo | leftHi) != 0) {
+            int amazon = leftLo != 0 ? Long.numberOfTrailingZeros(leftLo)
+                : LO_BITS + Long.numberOfTrailingZeros(leftHi);
+            fill(amazon, emptyLo | amazonsLo, emptyHi | amazonsHi);
+            long regionLo = _fillLo, regionHi = _fillHi;
+            leftLo &= ~regionLo;
+            leftHi &= ~regionHi;
+            long lo = regionLo & emptyLo, hi = regionHi & emptyHi;
+            int size = Long.bitCount(lo) + Long.bitCount(hi);
+            int known = _tablebase == null ? Tablebase.UNKNOWN
+                : _tablebase.value(lo, hi, regionLo & amazonsLo,
+                                   regionHi & amazonsHi, _tablebaseKey);
+            if (known != Tablebase.UNKNOWN) {
+                total += known;
+            } else if (size <= EXACT_LIMIT) {
+                total += exact(lo, hi, regionLo & amazonsLo,
+                               regionHi & amazonsHi);
+            } else {
+                total += size;
+                _estimated = true;
+            }
+        }
+        return total;
+    }
+
+    /** Return the most moves the amazons in AMAZONSLO, AMAZONSHI can
+     *  make over the empty squares EMPTYLO, EMPTYHI, all of which they
+     *  reach, trying every move and stopping early if one allows a move
+     *  per empty square.  Results are memoized. */
+    private int exact(long emptyLo, long emptyHi,
+                      long amazonsLo, long amazonsHi) {
+        int bound = Long.bitCount(emptyLo) + Long.bitCount(emptyHi);
+        if (bound == 0) {
+            return 0;
+        }
+        long keyHi = emptyHi
+            | (long) amazonCode(amazonsLo, amazonsHi) << AMAZON_SHIFT;
+        long h = (emptyLo * HASH_MULTIPLIER ^ keyHi) * HASH_MULTIPLIER;
+        int slot = (int) (h >>> Integer.SIZE) & (MEMO_SLOTS - 1);
+        if (_memoLo[slot] == emptyLo && _memoHi[slot] == keyHi) {
+            return _memoValue[slot];
+        }
+        int best = 0;
+        long leftLo = amazonsLo, leftHi = amazonsHi;
+        while (best < bound && (leftLo | leftHi) != 0) {
+            int from;
+            if (leftLo != 0) {
+                from = Long.numberOfTrailingZeros(leftLo);
+                leftLo &= leftLo - 1;
+            } else {
+                from = LO_BITS + Long.numberOfTrailingZeros(leftHi);
+                leftHi &= leftHi - 1;
+            }
+            long movedLo = amazonsLo & ~bitLo(from),
+                movedHi = amazonsHi & ~bitHi(from);
+            for (int dir = 0; dir < Square.DIRECTIONS && best < bound;
+                 dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (!has(emptyLo, emptyHi, to) || best == bound) {
+                        break;
+                    }
+                    long openLo = (emptyLo | bitLo(from)) & ~bitLo(to),
+                        openHi = (emptyHi | bitHi(from)) & ~bitHi(to);
+                    best = Math.max(best,
+                                    bestThrow(to, openLo, openHi,
+                                              movedLo | bitLo(to),
+                                              movedHi | bitHi(to),
+                                              bound));
+                }
+            }
+        }
+        _memoLo[slot] = emptyLo;
+        _memoHi[slot] = keyHi;
+        _memoValue[slot] = best;
+        return best;
+    }
+
+    /** Return the code of the amazons (at most four) in the mask LO,
+     *  HI: the index plus one of each, in increasing order, in
+     *  successive fields of AMAZON_BITS bits. */
+    private static int amazonCode(long lo, long hi) {
+        int code = 0, shift = 0;
+        for (; lo != 0; lo &= lo - 1) {
+            code |= (Long.numberOfTrailingZeros(lo) + 1) << shift;
+            shift += AMAZON_BITS;
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            code |= (LO_BITS + Long.numberOfTrailingZeros(hi) + 1) << shift;
+            shift += AMAZON_BITS;
+        }
+        return code;
+    }
+
+    /** Return the most moves that can be made after an amazon arrives
+     *  at the square with index TO, leaving the empty squares OPENLO,
+     *  OPENHI and amazons AMAZONSLO, AMAZONSHI, and throws a spear:
+     *  one more than the best value after any throw, but at most BOUND
+     *  (at which it stops looking). */
+    private int bestThrow(int to, long openLo, long openHi,
+                          long amazonsLo, long amazonsHi, int bound) {
+        int best = 0;
+        for (int dir = 0; dir < Square.DIRECTIONS && best < bound;
+             dir += 1) {
+            for (int spear : Square.ray(to, dir)) {
+                if (!has(openLo, openHi, spear) || best == bound) {
+                    break;
+                }
+                best = Math.max(best,
+                                1 + value(openLo & ~bitLo(spear),
+                                          openHi & ~bitHi(spear),
+                                          amazonsLo, amazonsHi));
+            }
+        }
+        return best;
+    }
+
+    /** Set _fillLo and _fillHi to the squares in OPENLO, OPENHI that are
+     *  connected to the square with index SEED through king steps over
+     *  such squares, plus SEED itself. */
+    private void fill(int seed, long openLo, long openHi) {
+        long lo = bitLo(seed), hi = bitHi(seed);
+        int top = 0;
+        _stack[top] = seed;
+        top += 1;
+        while (top > 0) {
+            top -= 1;
+            for (int nb : Board.neighbors(_stack[top])) {
+                if (has(openLo, openHi, nb) && !has(lo, hi, nb)) {
+                    lo |= bitLo(nb);
+                    hi |= bitHi(nb);
+                    _stack[top] = nb;
+                    top += 1;
+                }
+            }
+        }
+        _fillLo = lo;
+        _fillHi = hi;
+    }
+
+    /** Number of slots in the memo (a power of two). */
+    private static final int MEMO_SLOTS = 1 << 17;
+
+    /** Layout of the high word of a memo key: the high word of the mask
+     *  of empty squares and, from AMAZON_SHIFT, the code of the amazons
+     *  (see amazonCode), whose fields are AMAZON_BITS bits each. */
+    private static final int AMAZON_SHIFT = 36, AMAZON_BITS = 7;
+
+    /** Multiplier used to hash memo keys. */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** True if a region was estimated since the last call to moves. */
+    private boolean _estimated;
+
+    /** Values of small regions, or null. */
+    private Tablebase _tablebase;
+
+    /** Scratch space for tablebase lookups. */
+    private final long[] _tablebaseKey = new long[2];
+
+    /** The keys of the memo of solved positions within one region: the
+     *  low word of the mask of empty squares, and a high word holding
+     *  the rest of the key, in each slot.  No key has both words 0, so
+     *  empty slots match no key. */
+    private final long[] _memoLo = new long[MEMO_SLOTS],
+        _memoHi = new long[MEMO_SLOTS];
+
+    /** The values of the positions in the memo. */
+    private final int[] _memoValue = new int[MEMO_SLOTS];
+
+    /** Scratch space for move lists. */
+    private final int[] _moves = new int[Board.MAX_MOVES];
+
+    /** During bestMove, the value of the region of the amazon on each
+     *  square before the move, or -1 if not yet computed. */
+    private final int[] _regionValue = new int[Board.SIZE * Board.SIZE];
+
+    /** Stack of squares to visit in fill. */
+    private final int[] _stack = new int[Board.SIZE * Board.SIZE];
+
+    /** Result of fill. */
+    private long _fillLo, _fillHi;
+}
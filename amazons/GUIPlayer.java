@@ -22,6 +22,11 @@ class GUIPlayer extends Player implements Reporter {
         return new GUIPlayer(piece, controller, _gui);
     }
 
+    @Override
+    boolean isManual() {
+        return true;
+    }
+
     @Override
     String myMove() {
         return _gui.readCommand();
@@ -0,0 +1,362 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search.  Each
+ *  iteration walks down the tree from the current position, choosing
+ *  children by UCT, adds a child where the tree has room, plays the game
+ *  out with random moves, and credits the result to every node on the
+ *  way.  Nodes get children gradually ("progressive widening"): a node
+ *  visited n times may have about WIDEN_BASE * n^WIDEN_EXPONENT
+ *  children, each a legal move not yet tried there, chosen at random.
+ *  The tree is a pool of nodes held in parallel primitive arrays, with
+ *  children in sibling lists, so a search allocates nothing per node.
+ *  With more than one thread, all threads grow the same tree
+ *  ("tree parallelization").  Walks through the tree and updates of it
+ *  are serialized on a lock, while the playouts, which take nearly all
+ *  the time, run in parallel.  Each walk adds a virtual loss to the
+ *  nodes it passes through until its playout's result replaces it,
+ *  steering other threads to other parts of the tree.
+ *  @author William Tai
+ */
+class MCTSPlayer extends Player {
+
+    /** Default number of nodes in the tree pool. */
+    static final int DEFAULT_POOL_SIZE = 1 << 19;
+
+    /** A new MCTSPlayer with no piece or controller (intended to
+     *  produce a template). */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER. */
+    MCTSPlayer(Piece piece, Controller controller) {
+        super(piece, controller);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER, with
+     *  the same settings as TEMPLATE. */
+    private MCTSPlayer(MCTSPlayer template, Piece piece,
+                       Controller controller) {
+        this(piece, controller);
+        _threads = template._threads;
+        _poolSize = template._poolSize;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(this, piece, controller);
+    }
+
+    /** Run playouts on THREADS threads (at least 1) in players created
+     *  from me and in my own searches. */
+    void setThreads(int threads) {
+        _threads = Math.max(1, threads);
+    }
+
+    /** Use a tree of at most NODES nodes (at least 1) in players created
+     *  from me and in my own searches. */
+    void setPoolSize(int nodes) {
+        _poolSize = Math.max(1, nodes);
+    }
+
+    @Override
+    String myMove() {
+        Board b = new Board(board());
+        int move = search(b, System.nanoTime() + moveBudget(b),
+                          Long.MAX_VALUE);
+        _controller.reportMove(move);
+        return Move.format(move);
+    }
+
+    /** Return the move for the side to move on BOARD, as a packed move,
+     *  after a search of PLAYOUTS playouts, or Move.NONE if there is no
+     *  move.  BOARD is not modified. */
+    int search(Board board, long playouts) {
+        return search(board, Utils.NO_DEADLINE, playouts);
+    }
+
+    /** Return the move for the side to move on BOARD, as a packed move,
+     *  or Move.NONE if there is no move: the most visited move at the
+     *  root after searching until DEADLINE passes (see Utils.passed) or
+     *  LIMIT playouts have been started, whichever comes first.  BOARD
+     *  is not modified. */
+    int search(Board board, long deadline, long limit) {
+        if (board.winner() != null) {
+            return Move.NONE;
+        }
+        if (_move == null || _move.length != _poolSize) {
+            allocate(_poolSize);
+        }
+        _size = 0;
+        newNode(Move.NONE);
+        _started = 0;
+        _limit = limit;
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int i = 0; i < helpers.length; i += 1) {
+            Worker helper = new Worker(board, i + 1);
+            helpers[i] = new Thread(() -> helper.run(deadline));
+            helpers[i].start();
+        }
+        new Worker(board, 0).run(deadline);
+        for (Thread helper : helpers) {
+            Utils.joinQuietly(helper);
+        }
+        int best = Move.NONE, bestVisits = -1;
+        for (int c = _firstChild[0]; c != NONE; c = _sibling[c]) {
+            if (_visits[c] > bestVisits) {
+                best = _move[c];
+                bestVisits = _visits[c];
+            }
+        }
+        return best;
+    }
+
+    /** Return the number of playouts completed since I was created. */
+    long playouts() {
+        return _playouts;
+    }
+
+    /** Return the number of nodes in the tree of my last search. */
+    int treeSize() {
+        return _size;
+    }
+
+    /** Return the number of times the root of my last search's tree was
+     *  visited. */
+    int rootVisits() {
+        return _visits[0];
+    }
+
+    /** One thread's share of a search: a private copy of the position
+     *  and scratch space for walking the tree and playing out games. */
+    private class Worker {
+
+        /** A worker searching from a copy of ROOT, numbered ID. */
+        Worker(Board root, int id) {
+            _root = new Board(root);
+            _random = new Random(SEED + id);
+        }
+
+        /** Run iterations until DEADLINE passes (see Utils.passed) or
+         *  the playout limit is reached. */
+        void run(long deadline) {
+            while (!Utils.passed(deadline)) {
+                _board.copy(_root);
+                if (!select(this)) {
+                    break;
+                }
+                Piece winner = _board.winner();
+                while (winner == null) {
+                    _board.makeMove(randomMove());
+                    winner = _board.winner();
+                }
+                backUp(this, winner);
+            }
+        }
+
+        /** Return a random legal move for the side to move on _board,
+         *  which must have one: a random amazon move, completed by a
+         *  random throw.  (This is not uniform over moves, but needs
+         *  only two short lists.) */
+        int randomMove() {
+            int n = _board.generateAmazonMoves(_board.turn(), _moves);
+            n = _board.generateThrows(_moves[_random.nextInt(n)], _moves);
+            return _moves[_random.nextInt(n)];
+        }
+
+        /** The position searched. */
+        private final Board _root;
+        /** The board on which I walk the tree and play out games. */
+        private final Board _board = new Board();
+        /** My random-number generator. */
+        private final Random _random;
+        /** Scratch space for move lists. */
+        private final int[] _moves = new int[Board.MAX_MOVES];
+        /** The nodes on the current walk, root first. */
+        private int[] _path = new int[Board.SIZE * Board.SIZE];
+        /** The number of nodes on the current walk. */
+        private int _pathLength;
+    }
+
+    /** Walk from the root of the tree to a node to play out from, for
+     *  WORKER, making the moves on the way on its board, expanding the
+     *  tree by one node if there is room, and adding a virtual loss to
+     *  each node on the way.  Returns false, doing nothing, if the
+     *  playout limit has been reached. */
+    private synchronized boolean select(Worker worker) {
+        if (_started >= _limit) {
+            return false;
+        }
+        _started += 1;
+        Board board = worker._board;
+        int node = 0;
+        worker._pathLength = 0;
+        while (true) {
+            visit(worker, node);
+            if (board.winner() != null) {
+                return true;
+            }
+            if (_moveCount[node] == NONE) {
+                _moveCount[node] = board.countLegalMoves(board.turn());
+            }
+            if (_childCount[node] < allowedChildren(node)
+                && _size < _move.length) {
+                int child = newNode(untriedMove(worker, node));
+                _sibling[child] = _firstChild[node];
+                _firstChild[node] = child;
+                _childCount[node] += 1;
+                board.makeMove(_move[child]);
+                visit(worker, child);
+                return true;
+            }
+            if (_firstChild[node] == NONE) {
+                return true;
+            }
+            node = bestChild(node);
+            board.makeMove(_move[node]);
+        }
+    }
+
+    /** Replace the virtual losses WORKER added on its walk with the
+     *  result of its playout, which WINNER won. */
+    private synchronized void backUp(Worker worker, Piece winner) {
+        Piece mover = worker._root.turn().opponent();
+        for (int i = 0; i < worker._pathLength; i += 1) {
+            int node = worker._path[i];
+            _visits[node] += 1 - VIRTUAL_LOSS;
+            if (mover == winner) {
+                _wins[node] += 1;
+            }
+            mover = mover.opponent();
+        }
+        _playouts += 1;
+    }
+
+    /** Add NODE to WORKER's walk, with a virtual loss. */
+    private void visit(Worker worker, int node) {
+        if (worker._pathLength == worker._path.length) {
+            worker._path = Arrays.copyOf(worker._path,
+                                         2 * worker._pathLength);
+        }
+        worker._path[worker._pathLength] = node;
+        worker._pathLength += 1;
+        _visits[node] += VIRTUAL_LOSS;
+    }
+
+    /** Return the number of children NODE may have, given its visits
+     *  so far and its number of legal moves. */
+    private int allowedChildren(int node) {
+        double widened = WIDEN_BASE * Math.pow(_visits[node],
+                                               WIDEN_EXPONENT);
+        return (int) Math.min(_moveCount[node], Math.ceil(widened));
+    }
+
+    /** Return a random legal move on WORKER's board, whose position is
+     *  that of NODE, that is not yet the move of one of NODE's
+     *  children.  There must be such a move. */
+    private int untriedMove(Worker worker, int node) {
+        int[] moves = worker._moves;
+        int n = worker._board.generateMoves(worker._board.turn(), moves);
+        int i = worker._random.nextInt(n);
+        while (isChild(node, moves[i])) {
+            i = i + 1 == n ? 0 : i + 1;
+        }
+        return moves[i];
+    }
+
+    /** Return true iff NODE has a child for packed MOVE. */
+    private boolean isChild(int node, int move) {
+        for (int c = _firstChild[node]; c != NONE; c = _sibling[c]) {
+            if (_move[c] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the child of NODE with the highest UCT value: its
+     *  winning rate for the side moving into it, plus an exploration
+     *  bonus that grows as it is visited less than its siblings. */
+    private int bestChild(int node) {
+        double logVisits = Math.log(_visits[node]);
+        int best = NONE;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int c = _firstChild[node]; c != NONE; c = _sibling[c]) {
+            double value = (double) _wins[c] / _visits[c]
+                + EXPLORATION * Math.sqrt(logVisits / _visits[c]);
+            if (value > bestValue) {
+                best = c;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    /** Add a node for packed MOVE to the pool, with no children or
+     *  visits, and return its index. */
+    private int newNode(int move) {
+        int node = _size;
+        _size += 1;
+        _move[node] = move;
+        _firstChild[node] = _sibling[node] = NONE;
+        _visits[node] = _wins[node] = _childCount[node] = 0;
+        _moveCount[node] = NONE;
+        return node;
+    }
+
+    /** Allocate a pool of NODES nodes. */
+    private void allocate(int nodes) {
+        _move = new int[nodes];
+        _firstChild = new int[nodes];
+        _sibling = new int[nodes];
+        _visits = new int[nodes];
+        _wins = new int[nodes];
+        _childCount = new int[nodes];
+        _moveCount = new int[nodes];
+    }
+
+    /** Index of no node, and the move count of a node not yet
+     *  counted. */
+    private static final int NONE = -1;
+
+    /** Weight of the exploration term in UCT. */
+    private static final double EXPLORATION = 0.7;
+
+    /** Visits added to each node on a walk until its playout ends. */
+    private static final int VIRTUAL_LOSS = 1;
+
+    /** Parameters of progressive widening (see the class comment). */
+    private static final double WIDEN_BASE = 2.0, WIDEN_EXPONENT = 0.5;
+
+    /** Seed of the random-number generator of worker 0; worker k uses
+     *  SEED + k. */
+    private static final long SEED = 61;
+
+    /** Number of threads running playouts. */
+    private int _threads = 1;
+
+    /** Number of nodes in the pool. */
+    private int _poolSize = DEFAULT_POOL_SIZE;
+
+    /** The node pool: for each node, the packed move leading to it,
+     *  its first child and next sibling (or NONE), its visits, its wins
+     *  for the side that made its move, its number of children, and the
+     *  number of legal moves from it (NONE until counted). */
+    private int[] _move, _firstChild, _sibling, _visits, _wins, _childCount,
+        _moveCount;
+
+    /** Number of nodes in use. */
+    private int _size;
+
+    /** Number of playouts started in the current search, and the most
+     *  allowed. */
+    private long _started, _limit;
+
+    /** Number of playouts completed since I was created. */
+    private long _playouts;
+}
@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 
 import static amazons.Utils.error;
 
@@ -15,14 +16,42 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the options --display,
+     *  --log=FILE, --hash=MB (the size of each AI's transposition
+     *  table in megabytes; 0 for none), --hash-file=FILE (keep one
+     *  transposition table, shared by both AIs and by any other
+     *  process using FILE, in FILE, of the size given by --hash if FILE
+     *  is new; see MappedTranspositionTable), --threads=N (the number of
+     *  threads each AI searches with), --root-split (search by
+     *  scoring root moves in parallel instead of with lazy SMP),
+     *  --split-plies (search amazon moves and spear throws as separate
+     *  plies), --beam=K (search selectively, keeping only the K most
+     *  promising moves at each node), --book=FILE (play moves from the
+     *  opening book in FILE; see OpeningBook), --tablebase=FILE (look up
+     *  the values of small endgame regions in FILE; see Tablebase),
+     *  --ponder (have automated sides keep searching while a manual
+     *  opponent chooses its move, and report how often they predicted
+     *  that move), and --mcts (play automated sides by Monte Carlo tree
+     *  search instead of alpha-beta search). */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --hash=(\\d+){0,1}"
+                            + " --hash-file="
+                            + " --threads=(\\d+){0,1} --root-split"
+                            + " --split-plies --beam=(\\d+){0,1}"
+                            + " --book= --tablebase= --ponder --mcts"
+                            + " --={0,2}",
+                            args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--hash=MB]"
+                               + " [--hash-file=FILE]"
+                               + " [--threads=N] [--root-split]"
+                               + " [--split-plies] [--beam=K]"
+                               + " [--book=FILE] [--tablebase=FILE]"
+                               + " [--ponder] [--mcts]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -54,6 +83,12 @@ public class Main {
 
     }
 
+    /** Bytes in a megabyte. */
+    private static final long MEGABYTE = 1 << 20;
+
+    /** Bytes used by one transposition-table entry. */
+    private static final int TABLE_ENTRY_BYTES = 2 * Long.BYTES;
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -83,6 +118,62 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        AI autoPlayer = new AI();
+        int entries = AI.DEFAULT_TABLE_SIZE;
+        if (options.contains("--hash")) {
+            long megabytes = Long.parseLong(options.getFirst("--hash"));
+            entries = (int) Math.min(megabytes * MEGABYTE / TABLE_ENTRY_BYTES,
+                                     Integer.MAX_VALUE);
+            autoPlayer.setTableSize(entries);
+        }
+        if (options.contains("--hash-file")) {
+            String file = options.getFirst("--hash-file");
+            try {
+                autoPlayer.setSharedTable(
+                    MappedTranspositionTable.open(Paths.get(file), entries));
+            } catch (IOException excp) {
+                System.err.printf("Could not open table file: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+        if (options.contains("--threads")) {
+            autoPlayer.setThreads(options.getInt("--threads"));
+        }
+        autoPlayer.setRootSplit(options.contains("--root-split"));
+        autoPlayer.setSplitPlies(options.contains("--split-plies"));
+        if (options.contains("--beam")) {
+            autoPlayer.setBeamWidths(options.getInt("--beam"));
+        }
+        if (options.contains("--book")) {
+            try {
+                autoPlayer.setOpeningBook(
+                    OpeningBook.open(Paths.get(options.getFirst("--book"))));
+            } catch (IOException excp) {
+                System.err.printf("Could not open opening book: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+        if (options.contains("--tablebase")) {
+            try {
+                autoPlayer.setTablebase(Tablebase.open(
+                    Paths.get(options.getFirst("--tablebase"))));
+            } catch (IOException excp) {
+                System.err.printf("Could not open tablebase: %s%n",
+                                  excp.getMessage());
+                System.exit(1);
+            }
+        }
+        autoPlayer.setPondering(options.contains("--ponder"));
+
+        if (options.contains("--mcts")) {
+            MCTSPlayer mcts = new MCTSPlayer();
+            if (options.contains("--threads")) {
+                mcts.setThreads(options.getInt("--threads"));
+            }
+            return new Controller(view, log, reporter, manualPlayer, mcts);
+        }
+        return new Controller(view, log, reporter, manualPlayer, autoPlayer);
     }
 }
@@ -0,0 +1,123 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A TranspositionTable kept in a file mapped into memory, so that its
+ *  results outlive the process and are shared by every process (or
+ *  thread) that opens the same file.  The file is a header of
+ *  HEADER_LONGS longs (MAGIC and the number of slots) followed by the
+ *  slots, each its key XORed with its data and then its data, as in a
+ *  TranspositionTable.  Stores are the table's usual unlocked writes of
+ *  two longs, so racing stores from different processes, or a process
+ *  that dies between the two writes, leave at worst a slot whose key
+ *  check fails, which reads as a miss.  A file whose header is not
+ *  valid (one not yet, or not completely, set up) is set up afresh.
+ *  Clearing the table keeps its entries, which other processes may be
+ *  using; searches with different settings keep apart by using
+ *  different salts (see setSalt).
+ *  @author William Tai
+ */
+class MappedTranspositionTable extends TranspositionTable {
+
+    /** First long of a table file (with the format's version in its low
+     *  byte). */
+    static final long MAGIC = 0x616d617a6f6e5401L;
+
+    /** Longs in a table file's header. */
+    static final int HEADER_LONGS = 2;
+
+    /** The most slots in a table (so that a file is less than 2GB, the
+     *  largest a single mapping may be). */
+    static final int MAX_SLOTS = 1 << 26;
+
+    /** A table whose slots are the longs of SLOTS after its header. */
+    private MappedTranspositionTable(LongBuffer slots) {
+        super((slots.capacity() - HEADER_LONGS) / 2, false);
+        _slots = slots;
+    }
+
+    /** Return the table in FILE, creating FILE if need be.  If FILE
+     *  holds a valid table, it is used as is, whatever its size;
+     *  otherwise it is set up as an empty table of about ENTRIES
+     *  entries (as for TranspositionTable, and at most MAX_SLOTS).
+     *  The file is locked while this is decided, so that processes
+     *  opening it at once set it up only once.  Throws IOException if
+     *  FILE cannot be locked, read, written or mapped. */
+    static MappedTranspositionTable open(Path file, int entries)
+        throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                long length = channel.size();
+                if (length >= HEADER_LONGS * Long.BYTES) {
+                    LongBuffer header =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                    HEADER_LONGS * Long.BYTES)
+                        .asLongBuffer();
+                    long slots = header.get(1);
+                    if (header.get(0) == MAGIC && Long.bitCount(slots) == 1
+                        && slots >= 2 && slots <= MAX_SLOTS
+                        && length == fileBytes((int) slots)) {
+                        return map(channel, (int) slots);
+                    }
+                }
+                int slots = Math.min(slots(entries), MAX_SLOTS);
+                channel.truncate(0);
+                MappedTranspositionTable table = map(channel, slots);
+                table._slots.put(1, slots);
+                table._slots.put(0, MAGIC);
+                return table;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /** Return a table mapping the SLOTS slots of the file open on
+     *  CHANNEL, extending the file if need be. */
+    private static MappedTranspositionTable map(FileChannel channel,
+                                                int slots)
+        throws IOException {
+        return new MappedTranspositionTable(
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes(slots))
+            .asLongBuffer());
+    }
+
+    /** Return the length of a table file of SLOTS slots. */
+    private static long fileBytes(int slots) {
+        return (HEADER_LONGS + 2L * slots) * Long.BYTES;
+    }
+
+    /** Reset the statistics only, keeping the entries. */
+    @Override
+    void clear() {
+        clearStatistics();
+    }
+
+    @Override
+    long storedKey(int slot) {
+        return _slots.get(HEADER_LONGS + 2 * slot);
+    }
+
+    @Override
+    long storedData(int slot) {
+        return _slots.get(HEADER_LONGS + 2 * slot + 1);
+    }
+
+    @Override
+    void storeSlot(int slot, long check, long data) {
+        _slots.put(HEADER_LONGS + 2 * slot, check);
+        _slots.put(HEADER_LONGS + 2 * slot + 1, data);
+    }
+
+    /** The mapped file, as longs. */
+    private final LongBuffer _slots;
+}
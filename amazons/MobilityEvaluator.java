@@ -0,0 +1,28 @@
+package amazons;
+
+import static amazons.Piece.*;
+
+/** An Evaluator that scores a position by the difference between the
+ *  numbers of legal moves available to White and to Black.
+ *  @author William Tai
+ */
+class MobilityEvaluator implements Evaluator {
+
+    /** My name, as used by Evaluator.named. */
+    static final String NAME = "mobility";
+
+    @Override
+    public int score(Board board) {
+        return board.countLegalMoves(WHITE) - board.countLegalMoves(BLACK);
+    }
+
+    @Override
+    public Evaluator create() {
+        return new MobilityEvaluator();
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+}
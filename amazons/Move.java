@@ -6,10 +6,12 @@ import java.util.regex.Matcher;
 import static amazons.Square.sq;
 import static amazons.Square.SQ;
 
-/** A move in the game of Amazons. As for Squares, Moves are immutable
- *  and unique: there is only one move object for each possible move
- *  (generated by the factory method  mv, the constructor being private).
- *  As for Squares, you can freely use == to compare Moves.
+/** A move in the game of Amazons.  Inside the engine, moves are plain
+ *  ints ("packed moves") holding the indices of the from, to, and spear
+ *  squares in seven bits each; the static methods of this class create,
+ *  take apart, parse, and print them.  Move objects are immutable
+ *  wrappers around packed moves, built only where moves meet the text
+ *  interface and the GUI.  Compare them with equals, not ==.
  *  @author P. N. Hilfinger
  */
 
@@ -23,46 +25,91 @@ final class Move {
         Pattern.compile(String.format("%s-%s\\(%s\\)|%s\\s+%s\\s+%s",
                                       SQ, SQ, SQ, SQ, SQ, SQ));
 
+    /** A packed value that denotes no move. */
+    static final int NONE = -1;
+
     /** Return the square moved from. */
     Square from() {
-        return _from;
+        return sq(fromIndex(_move));
     }
 
     /** Return the square moved to. */
     Square to() {
-        return _to;
+        return sq(toIndex(_move));
     }
 
     /** Return the destination of the spear. */
     Square spear() {
-        return _spear;
+        return sq(spearIndex(_move));
+    }
+
+    /** Return my packed form. */
+    int packed() {
+        return _move;
     }
 
-    /** Return the unique Move FROM-TO(SPEAR). */
+    /** Return the Move FROM-TO(SPEAR). */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
-        }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return new Move(pack(from.index(), to.index(), spear.index()));
+    }
+
+    /** Return the packed form of the move from the square with index
+     *  FROM to TO, throwing a spear to SPEAR.  Packed moves hold the
+     *  three square indices in seven bits each, FROM in the low bits. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << INDEX_BITS) | (spear << (2 * INDEX_BITS));
+    }
+
+    /** Return the index of the square moved from in packed move MOVE. */
+    static int fromIndex(int move) {
+        return move & INDEX_MASK;
+    }
+
+    /** Return the index of the square moved to in packed move MOVE. */
+    static int toIndex(int move) {
+        return (move >>> INDEX_BITS) & INDEX_MASK;
+    }
+
+    /** Return the index of the spear's square in packed move MOVE. */
+    static int spearIndex(int move) {
+        return (move >>> (2 * INDEX_BITS)) & INDEX_MASK;
+    }
+
+    /** Return the Move denoted by packed move MOVE. */
+    static Move mv(int move) {
+        return new Move(move);
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
     static Move mv(String str) {
+        int move = parse(str);
+        return move == NONE ? null : new Move(move);
+    }
+
+    /** Return the packed move denoted by STR, if STR denotes a move with
+     *  valid syntax in which the piece move and spear throw are proper
+     *  queen moves, and NONE otherwise. */
+    static int parse(String str) {
         _moveMatcher.reset(str);
         if (_moveMatcher.matches()) {
             int k = _moveMatcher.group(1) != null ? 1 : 4;
-            String i = _moveMatcher.group(k + 2);
             Square from = sq(_moveMatcher.group(k)),
                 to = sq(_moveMatcher.group(k + 1)),
                 spear = sq(_moveMatcher.group(k + 2));
             if (from.isQueenMove(to) && to.isQueenMove(spear)) {
-                return mv(from, to, spear);
+                return pack(from.index(), to.index(), spear.index());
             }
         }
-        return null;
+        return NONE;
+    }
+
+    /** Return the standard printed form, FROM-TO(SPEAR), of packed
+     *  move MOVE. */
+    static String format(int move) {
+        return sq(fromIndex(move)) + "-" + sq(toIndex(move))
+            + "(" + sq(spearIndex(move)) + ")";
     }
 
     /** Return true iff STR has the right format for a Move, ignoring whether
@@ -72,25 +119,33 @@ final class Move {
         return _moveMatcher.matches();
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Move && ((Move) obj)._move == _move;
+    }
+
+    @Override
+    public int hashCode() {
+        return _move;
+    }
+
     @Override
     public String toString() {
-        return _str;
+        return format(_move);
     }
 
-    /** Construct the Move FROM-TO(SPEAR). */
-    private Move(Square from, Square to, Square spear) {
-        _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
+    /** Construct the Move whose packed form is MOVE. */
+    private Move(int move) {
+        _move = move;
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** Number of bits per square index in a packed move. */
+    private static final int INDEX_BITS = 7;
+    /** Mask selecting one square index of a packed move. */
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
 
-    /** The components of a Move. */
-    private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
-    private String _str;
+    /** My packed form. */
+    private final int _move;
     /**  A utility Matcher for moves, using MOVE_PATTERN. */
     private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
-
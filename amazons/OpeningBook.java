@@ -0,0 +1,272 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A book of opening moves, read from a file.  The file is a header of
+ *  three ints (MAGIC, VERSION and the number of records) followed by
+ *  records of RECORD_BYTES bytes each: a position's Zobrist key (see
+ *  Board.hashKey), a packed move from it, the number of games in which
+ *  the side that played the move won, and the number of games in which
+ *  it was played.  All numbers are big-endian.  The records are sorted
+ *  by key (as signed longs), then by move, so a book is used straight
+ *  from a read-only mapping of its file, with binary searches for keys
+ *  and no parsing.  Books are made from logs of games (as written by
+ *  the --log option of Main) by a Builder, or from the command line:
+ *      java amazons.OpeningBook BOOK LOG...
+ *  @author William Tai
+ */
+class OpeningBook {
+
+    /** First int of a book file. */
+    static final int MAGIC = 0x414d5a42;
+
+    /** Version of the file format. */
+    static final int VERSION = 1;
+
+    /** Bytes in a book file's header. */
+    static final int HEADER_BYTES = 3 * Integer.BYTES;
+
+    /** Bytes in one record. */
+    static final int RECORD_BYTES = Long.BYTES + 3 * Integer.BYTES;
+
+    /** Books hold positions in which fewer than MAX_PLY moves have been
+     *  made. */
+    static final int MAX_PLY = 24;
+
+    /** The fewest games in which a move must have been played for probe
+     *  to choose it. */
+    static final int MIN_VISITS = 2;
+
+    /** Build a book from the game logs named by ARGS[1..] and write it
+     *  to the file named by ARGS[0]. */
+    public static void main(String... args) {
+        if (args.length < 2) {
+            Utils.fatal("Usage: java amazons.OpeningBook BOOK LOG...%n");
+        }
+        Builder builder = new Builder();
+        try {
+            for (int i = 1; i < args.length; i += 1) {
+                try (BufferedReader log =
+                     Files.newBufferedReader(Paths.get(args[i]))) {
+                    builder.addLog(log);
+                }
+            }
+            builder.write(Paths.get(args[0]));
+        } catch (IOException excp) {
+            Utils.fatal("Could not build book: %s%n", excp.getMessage());
+        }
+        System.out.printf("%d games, %d records%n", builder.games(),
+                          builder.size());
+    }
+
+    /** A book whose SIZE records start at byte HEADER_BYTES of
+     *  BUFFER. */
+    private OpeningBook(ByteBuffer buffer, int size) {
+        _buffer = buffer;
+        _size = size;
+    }
+
+    /** Return the book in FILE, which is mapped into memory read-only.
+     *  Throws IOException if FILE cannot be read or is not a book. */
+    static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException(file + " is not an opening book");
+            }
+            ByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int size = buffer.getInt(2 * Integer.BYTES);
+            if (buffer.getInt(0) != MAGIC
+                || buffer.getInt(Integer.BYTES) != VERSION
+                || size < 0
+                || HEADER_BYTES + (long) size * RECORD_BYTES != length) {
+                throw new IOException(file + " is not an opening book");
+            }
+            return new OpeningBook(buffer, size);
+        }
+    }
+
+    /** Return the number of records in this book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the book move for the side to move on BOARD, as a packed
+     *  move, or Move.NONE if there is none.  Of the legal moves played
+     *  from BOARD's position at least MIN_VISITS times, the one whose
+     *  player won the largest share of its games, with one win and one
+     *  loss added to each move's record, is chosen. */
+    int probe(Board board) {
+        if (board.numMoves() >= MAX_PLY || board.winner() != null) {
+            return Move.NONE;
+        }
+        long key = board.hashKey();
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int best = Move.NONE;
+        double bestShare = -1;
+        for (int i = lo; i < _size && key(i) == key; i += 1) {
+            int move = move(i), visits = visits(i);
+            if (visits < MIN_VISITS || !board.isLegal(move)) {
+                continue;
+            }
+            double share = (wins(i) + 1.0) / (visits + 2.0);
+            if (share > bestShare) {
+                best = move;
+                bestShare = share;
+            }
+        }
+        return best;
+    }
+
+    /** Return the key of record I. */
+    private long key(int i) {
+        return _buffer.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    /** Return the packed move of record I. */
+    private int move(int i) {
+        return _buffer.getInt(HEADER_BYTES + i * RECORD_BYTES + Long.BYTES);
+    }
+
+    /** Return the wins of record I. */
+    private int wins(int i) {
+        return _buffer.getInt(HEADER_BYTES + i * RECORD_BYTES + Long.BYTES
+                              + Integer.BYTES);
+    }
+
+    /** Return the number of games of record I. */
+    private int visits(int i) {
+        return _buffer.getInt(HEADER_BYTES + i * RECORD_BYTES + Long.BYTES
+                              + 2 * Integer.BYTES);
+    }
+
+    /** Collects the moves of finished games and writes them out as a
+     *  book. */
+    static class Builder {
+
+        /** Add the finished games in LOG, a sequence of commands as
+         *  written by the --log option of Main.  Moves are replayed
+         *  (illegal ones are skipped, as Controller does), "undo" takes
+         *  back a move, and "new" abandons the game in progress.  A game
+         *  is added when a move ends it. */
+        void addLog(BufferedReader log) throws IOException {
+            Board board = new Board();
+            ArrayList<Integer> moves = new ArrayList<>();
+            for (String line = log.readLine(); line != null;
+                 line = log.readLine()) {
+                String cmnd = line.replaceFirst("#.*", "").trim()
+                    .toLowerCase();
+                if (cmnd.equals("new")) {
+                    board.init();
+                    moves.clear();
+                } else if (cmnd.equals("undo")) {
+                    if (!moves.isEmpty()) {
+                        board.undo();
+                        moves.remove(moves.size() - 1);
+                    }
+                } else if (board.winner() == null) {
+                    int move = Move.parse(cmnd);
+                    if (move != Move.NONE && board.isLegal(move)) {
+                        board.makeMove(move);
+                        moves.add(move);
+                        if (board.winner() != null) {
+                            int[] game = new int[moves.size()];
+                            for (int i = 0; i < game.length; i += 1) {
+                                game[i] = moves.get(i);
+                            }
+                            addGame(game, board.winner());
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Add the game that began with the legal packed MOVES (from
+         *  the initial position) and was won by WINNER.  Only its first
+         *  MAX_PLY moves are recorded. */
+        void addGame(int[] moves, Piece winner) {
+            Board board = new Board();
+            for (int i = 0; i < moves.length && i < MAX_PLY; i += 1) {
+                int[] record = _records
+                    .computeIfAbsent(board.hashKey(), k -> new TreeMap<>())
+                    .computeIfAbsent(moves[i], m -> new int[2]);
+                if (board.turn() == winner) {
+                    record[0] += 1;
+                }
+                record[1] += 1;
+                board.makeMove(moves[i]);
+            }
+            _games += 1;
+        }
+
+        /** Return the number of games added. */
+        int games() {
+            return _games;
+        }
+
+        /** Return the number of records in the book so far. */
+        int size() {
+            int size = 0;
+            for (Map<Integer, int[]> moves : _records.values()) {
+                size += moves.size();
+            }
+            return size;
+        }
+
+        /** Write the book to FILE. */
+        void write(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size());
+                for (Map.Entry<Long, TreeMap<Integer, int[]>> position
+                         : _records.entrySet()) {
+                    for (Map.Entry<Integer, int[]> move
+                             : position.getValue().entrySet()) {
+                        out.writeLong(position.getKey());
+                        out.writeInt(move.getKey());
+                        out.writeInt(move.getValue()[0]);
+                        out.writeInt(move.getValue()[1]);
+                    }
+                }
+            }
+        }
+
+        /** For each position's key, and each move from it, the wins and
+         *  games of the move, both sorted as in a book file. */
+        private final TreeMap<Long, TreeMap<Integer, int[]>> _records =
+            new TreeMap<>();
+
+        /** Number of games added. */
+        private int _games;
+    }
+
+    /** The mapped book file. */
+    private final ByteBuffer _buffer;
+
+    /** Number of records. */
+    private final int _size;
+}
@@ -0,0 +1,174 @@
+package amazons;
+
+import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Counts of the positions reached by all sequences of legal moves of
+ *  a given length ("perft"), for checking the move generator (see
+ *  Board.generateMoves) and Board.makeMove and Board.undo against known
+ *  counts, and for timing them.  A "divide" gives the count below each
+ *  move from the root as well, which narrows a wrong count down to the
+ *  moves at fault.  Counts may be split over threads, one task per
+ *  root move, in a ForkJoinPool.  From the command line,
+ *      java amazons.Perft [divide] DEPTH [THREADS]
+ *  counts from the initial position.
+ *  @author William Tai
+ */
+class Perft {
+
+    /** Print the perft (or, if ARGS begins with "divide", the divide)
+     *  of the depth ARGS[0] from the initial position, using ARGS[1]
+     *  threads (default 1). */
+    public static void main(String... args) {
+        boolean divide = args.length > 0 && args[0].equals("divide");
+        int first = divide ? 1 : 0;
+        if (args.length <= first || args.length > first + 2) {
+            Utils.fatal("Usage: java amazons.Perft [divide] DEPTH"
+                        + " [THREADS]%n");
+        }
+        for (int i = first; i < args.length; i += 1) {
+            if (!args[i].matches("\\d{1,2}")) {
+                Utils.fatal("DEPTH and THREADS must be numbers%n");
+            }
+        }
+        int depth = Integer.parseInt(args[first]);
+        int threads = args.length == first + 2
+            ? Integer.parseInt(args[first + 1]) : 1;
+        report(System.out, new Board(), depth, threads, divide);
+    }
+
+    /** Return the number of positions reached from BOARD by all
+     *  sequences of DEPTH legal moves (positions in which the game is
+     *  over end a sequence early, and are not counted unless they are
+     *  DEPTH moves deep), searching the moves from BOARD in parallel
+     *  iff THREADS is more than 1.  BOARD is restored when done. */
+    static long perft(Board board, int depth, int threads) {
+        if (depth == 0) {
+            return 1;
+        }
+        long total = 0;
+        for (long count : divide(board, depth, threads, new int[0])) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** Return the number of positions reached from BOARD by each legal
+     *  move, in the order of Board.generateMoves, followed by all
+     *  sequences of DEPTH - 1 legal moves (as for perft), which must be
+     *  at least 1.  The moves are put in MOVES, if it is long enough
+     *  (Board.MAX_MOVES will do).  Searches the moves in parallel, in a
+     *  pool of THREADS threads, iff THREADS is more than 1.  BOARD is
+     *  restored when done. */
+    static long[] divide(Board board, int depth, int threads,
+                         int[] moves) {
+        int[] rootMoves = new int[Board.MAX_MOVES];
+        int n = board.generateMoves(board.turn(), rootMoves);
+        System.arraycopy(rootMoves, 0, moves, 0, Math.min(n, moves.length));
+        long[] counts = new long[n];
+        if (threads <= 1) {
+            int[][] buffers = new int[depth][Board.MAX_MOVES];
+            for (int i = 0; i < n; i += 1) {
+                board.makeMove(rootMoves[i]);
+                counts[i] = count(board, depth - 1, buffers);
+                board.undo();
+            }
+            return counts;
+        }
+        Subtree[] tasks = new Subtree[n];
+        for (int i = 0; i < n; i += 1) {
+            tasks[i] = new Subtree(board, rootMoves[i], depth - 1);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    invokeAll(tasks);
+                    return null;
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < n; i += 1) {
+            counts[i] = tasks[i].join();
+        }
+        return counts;
+    }
+
+    /** Print to OUT the perft of BOARD to DEPTH, found with THREADS
+     *  threads, with the time taken and the positions counted per
+     *  second, preceded, iff DIVIDE, by the count for each move from
+     *  BOARD (see divide).  BOARD is restored when done. */
+    static void report(PrintStream out, Board board, int depth, int threads,
+                       boolean divide) {
+        long start = System.nanoTime();
+        long total;
+        if (divide && depth > 0) {
+            int[] moves = new int[Board.MAX_MOVES];
+            long[] counts = divide(board, depth, threads, moves);
+            total = 0;
+            for (int i = 0; i < counts.length; i += 1) {
+                out.printf("%s: %d%n", Move.format(moves[i]), counts[i]);
+                total += counts[i];
+            }
+            out.printf("%d moves%n", counts.length);
+        } else {
+            total = perft(board, depth, threads);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("perft %d: %d positions in %.3f s (%.0f/s)%n", depth,
+                   total, seconds, total / Math.max(seconds, 1e-9));
+    }
+
+    /** Return the number of positions reached from BOARD by all
+     *  sequences of DEPTH legal moves, using BUFFERS[d] (for d < DEPTH)
+     *  for the moves at d moves from the end.  The moves at the last
+     *  ply are counted, not made.  BOARD is restored when done. */
+    private static long count(Board board, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = buffers[depth - 1];
+        int n = board.generateMoves(board.turn(), moves);
+        if (depth == 1) {
+            return n;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            total += count(board, depth - 1, buffers);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** The count below one move from the root, on a board of its
+     *  own. */
+    private static class Subtree extends RecursiveTask<Long> {
+
+        /** Version of my serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /** The count of positions DEPTH moves below packed MOVE from
+         *  ROOT, which is copied and not changed. */
+        Subtree(Board root, int move, int depth) {
+            _board = new Board(root);
+            _board.makeMove(move);
+            _depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            return count(_board, _depth, new int[_depth][Board.MAX_MOVES]);
+        }
+
+        /** My position, after the root move. */
+        private final Board _board;
+
+        /** Moves left to count. */
+        private final int _depth;
+    }
+}
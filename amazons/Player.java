@@ -36,6 +36,49 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Return true iff my moves come from a person, so that I leave
+     *  the machine idle while choosing them. */
+    boolean isManual() {
+        return false;
+    }
+
+    /** Stop any work I am doing in the background, and report on it if
+     *  need be.  Called by my controller when my game ends or I stop
+     *  playing it.  By default, does nothing. */
+    void finish() {
+    }
+
+    /** Return the time in nanoseconds an automated player should spend
+     *  choosing a move on BOARD: an equal share of what remains on my
+     *  game clock for each of the moves I can expect to make, but no
+     *  more than the per-move limit, less a safety margin.  Divides
+     *  before multiplying, so that limits set near Long.MAX_VALUE by a
+     *  huge "time" command do not overflow. */
+    long moveBudget(Board board) {
+        long moveLimit = _controller.moveTimeLimit();
+        long remaining = _controller.timeRemaining(_myPiece);
+        int movesLeft = Math.max(MIN_MOVES_LEFT,
+                                 (EXPECTED_GAME_LENGTH - board.numMoves())
+                                 / 2);
+        long budget = Math.min(moveLimit, remaining / movesLeft);
+        return Math.max(MIN_BUDGET,
+                        budget / 100 * SAFETY_PERCENT - SAFETY_MARGIN);
+    }
+
+    /** Number of moves a game is expected to last, for budgeting time. */
+    private static final int EXPECTED_GAME_LENGTH = 80;
+
+    /** The fewest moves of my own I assume remain, for budgeting. */
+    private static final int MIN_MOVES_LEFT = 5;
+
+    /** Percentage of a move's share of the clock actually budgeted, and
+     *  nanoseconds held back for reporting the move. */
+    private static final long
+        SAFETY_PERCENT = 80, SAFETY_MARGIN = 50_000_000;
+
+    /** The least time budgeted for a move, in nanoseconds. */
+    private static final long MIN_BUDGET = 10_000_000;
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
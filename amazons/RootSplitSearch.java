@@ -0,0 +1,269 @@
+package amazons;
+
+import static amazons.Piece.*;
+import static amazons.Searcher.INFTY;
+import static amazons.Searcher.WINNING_VALUE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A search that scores the moves at the root in parallel.  Each
+ *  iteration of the iterative deepening scores the expected best root
+ *  move first, on the calling thread, and then scores the rest as
+ *  separate tasks in a ForkJoinPool, each on its own copy of the board.
+ *  The best value found so far is shared through an atomic, so that
+ *  tasks started later search with a tighter window.  When the deadline
+ *  passes or a winning move turns up, a shared flag cancels the rest:
+ *  tasks not yet started return at once, and running ones stop within
+ *  a few thousand nodes.  The search always waits for all of its tasks
+ *  before returning, so none outlives it.
+ *  @author William Tai
+ */
+class RootSplitSearch {
+
+    /** A search using THREADS worker threads, TABLE (which may be null)
+     *  as the shared transposition table, and STOP as the flag that
+     *  tells its searchers to stop. */
+    RootSplitSearch(int threads, TranspositionTable table,
+                    AtomicBoolean stop) {
+        _pool = new ForkJoinPool(threads);
+        _table = table;
+        _stop = stop;
+    }
+
+    /** Have my searchers evaluate positions with evaluators made from
+     *  TEMPLATE. */
+    void setEvaluator(Evaluator template) {
+        _evaluator = template;
+    }
+
+    /** Iff ORDERING, have my searchers order moves by killers and
+     *  history (see Searcher.setMoveOrdering). */
+    void setMoveOrdering(boolean ordering) {
+        _ordering = ordering;
+    }
+
+    /** Iff SPLIT, have my searchers search amazon moves and spear
+     *  throws as separate plies (see Searcher.setSplitPlies).  Root
+     *  moves are still whole moves. */
+    void setSplitPlies(boolean split) {
+        _split = split;
+    }
+
+    /** Have my searchers keep only the WIDTHS[p] most promising moves
+     *  at ply p (see Searcher.setBeamWidths).  The root itself is
+     *  searched at full width, so its width is ignored. */
+    void setBeamWidths(int... widths) {
+        _beamWidths = widths.length <= 1 ? widths.clone()
+            : Arrays.copyOfRange(widths, 1, widths.length);
+    }
+
+    /** Iff REGIONS, have my searchers use the board's regions (see
+     *  Searcher.setRegions). */
+    void setRegions(boolean regions) {
+        _regions = regions;
+    }
+
+    /** Look up the values of small regions in TABLEBASE (none if null;
+     *  see Searcher.setTablebase). */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the best move for the side to move on BOARD, as a packed
+     *  move, or Move.NONE if there is no move.  Searches with iterative
+     *  deepening up to MAXDEPTH, stopping when DEADLINE passes (see
+     *  Utils.passed) or the next iteration is unlikely to finish in time, as
+     *  for Searcher.search.  BOARD is not modified. */
+    int search(Board board, int maxDepth, long deadline) {
+        long start = System.nanoTime();
+        _stop.set(false);
+        _completedDepth = 0;
+        for (Searcher searcher : _idle) {
+            searcher.newSearch();
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.generateMoves(board.turn(), moves);
+        moves = Arrays.copyOf(moves, n);
+        int best = n == 0 ? Move.NONE : moves[0];
+        int sense = board.turn() == WHITE ? 1 : -1;
+        for (int depth = 1; depth <= maxDepth && n > 1; depth += 1) {
+            Searcher.moveToFront(moves, n, best);
+            long result = searchRoot(board, moves, depth, sense, deadline);
+            int value = value(result);
+            boolean won = value >= WINNING_VALUE;
+            if (_incomplete.get() && !won) {
+                if (_completedDepth == 0 && move(result) != Move.NONE) {
+                    best = move(result);
+                }
+                break;
+            }
+            best = move(result);
+            _completedDepth = depth;
+            if (Math.abs(value) >= WINNING_VALUE
+                || Utils.halfPassed(start, deadline)) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Return the depth of the last iteration completed by the last
+     *  search. */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the number of positions visited by all my searchers. */
+    long nodes() {
+        long nodes = 0;
+        synchronized (_searchers) {
+            for (Searcher searcher : _searchers) {
+                nodes += searcher.nodes();
+            }
+        }
+        return nodes;
+    }
+
+    /** Stop my worker threads.  I may not be used afterwards. */
+    void shutdown() {
+        _pool.shutdownNow();
+    }
+
+    /** Score MOVES from BOARD to DEPTH levels, where SENSE is that of
+     *  the side to move, stopping at DEADLINE.  Returns the best move
+     *  and its value to the side to move, packed as by result; sets
+     *  _incomplete if any move's search was cut short. */
+    private long searchRoot(Board board, int[] moves, int depth, int sense,
+                            long deadline) {
+        AtomicLong best = new AtomicLong(result(-INFTY, Move.NONE));
+        _incomplete.set(false);
+        scoreMove(board, moves[0], depth, sense, deadline, best);
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(moves.length);
+        for (int i = 1; i < moves.length && !_stop.get(); i += 1) {
+            int move = moves[i];
+            tasks.add(_pool.submit(() -> scoreMove(board, move, depth, sense,
+                                                   deadline, best)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+        }
+        return best.get();
+    }
+
+    /** Score MOVE from a copy of ROOT to DEPTH levels, where SENSE is
+     *  that of the side to move, stopping at DEADLINE, and offer the
+     *  result to BEST.  A move that wins, or a search that runs past
+     *  DEADLINE, stops the other searches. */
+    private void scoreMove(Board root, int move, int depth, int sense,
+                           long deadline, AtomicLong best) {
+        if (_stop.get() || Utils.passed(deadline)) {
+            _stop.set(true);
+            _incomplete.set(true);
+            return;
+        }
+        Searcher searcher = acquire();
+        try {
+            Board board = new Board(root);
+            board.makeMove(move);
+            int bound = value(best.get());
+            int alpha = sense == 1 ? bound : -INFTY,
+                beta = sense == 1 ? INFTY : -bound;
+            int value = sense * searcher.score(board, depth - 1, -sense,
+                                               alpha, beta, deadline);
+            if (searcher.stopped()) {
+                _incomplete.set(true);
+                return;
+            }
+            long current = best.get();
+            while (value > value(current)
+                   && !best.compareAndSet(current, result(value, move))) {
+                current = best.get();
+            }
+            if (value >= WINNING_VALUE) {
+                _stop.set(true);
+            }
+        } finally {
+            _idle.add(searcher);
+        }
+    }
+
+    /** Return an idle searcher, creating one if there is none. */
+    private Searcher acquire() {
+        Searcher searcher = _idle.poll();
+        if (searcher == null) {
+            searcher = new Searcher(0, _table, _stop);
+            searcher.setMoveOrdering(_ordering);
+            searcher.setSplitPlies(_split);
+            searcher.setBeamWidths(_beamWidths);
+            searcher.setRegions(_regions);
+            searcher.setTablebase(_tablebase);
+            searcher.setEvaluator(_evaluator);
+            synchronized (_searchers) {
+                _searchers.add(searcher);
+            }
+        }
+        return searcher;
+    }
+
+    /** Return VALUE and packed MOVE combined in one long. */
+    private static long result(int value, int move) {
+        return ((long) value << Integer.SIZE) | (move & 0xffffffffL);
+    }
+
+    /** Return the value in RESULT (see result). */
+    private static int value(long result) {
+        return (int) (result >> Integer.SIZE);
+    }
+
+    /** Return the packed move in RESULT (see result). */
+    private static int move(long result) {
+        return (int) result;
+    }
+
+    /** Pool running the root-move tasks. */
+    private final ForkJoinPool _pool;
+
+    /** The shared transposition table, or null. */
+    private final TranspositionTable _table;
+
+    /** Flag telling all my searchers to stop. */
+    private final AtomicBoolean _stop;
+
+    /** Set when some root move's search in the current iteration was
+     *  cut short or never run. */
+    private final AtomicBoolean _incomplete = new AtomicBoolean();
+
+    /** Searchers not in use by any task. */
+    private final ConcurrentLinkedQueue<Searcher> _idle =
+        new ConcurrentLinkedQueue<>();
+
+    /** All searchers I have created. */
+    private final ArrayList<Searcher> _searchers = new ArrayList<>();
+
+    /** Template for my searchers' evaluators. */
+    private Evaluator _evaluator = new MobilityEvaluator();
+
+    /** True if my searchers order moves by killers and history. */
+    private boolean _ordering = true;
+
+    /** True if my searchers split moves into amazon and spear plies. */
+    private boolean _split;
+
+    /** Beam widths for my searchers, from ply 1 of the real search. */
+    private int[] _beamWidths = new int[0];
+
+    /** True if my searchers use the board's regions. */
+    private boolean _regions = true;
+
+    /** Tablebase for my searchers, or null. */
+    private Tablebase _tablebase;
+
+    /** Depth of the last completed iteration of the last search. */
+    private int _completedDepth;
+}
@@ -0,0 +1,721 @@
+package amazons;
+
+import static amazons.Piece.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** The alpha-beta search used by AI, together with the per-thread state
+ *  it needs (move buffers, node counts, and move-ordering state).  A
+ *  parallel search runs several Searchers at once on their own copies of
+ *  the board, all sharing one transposition table and one stop flag.
+ *  @author William Tai
+ */
+class Searcher {
+
+    /** A position magnitude indicating a win (for white if positive, black
+     *  if negative). */
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    /** A magnitude greater than a normal value. */
+    static final int INFTY = Integer.MAX_VALUE;
+
+    /** A Searcher numbered ID (0 for the main thread of a search, which
+     *  orders moves deterministically), using TABLE (which may be null)
+     *  as its transposition table and stopping when STOP is set. */
+    Searcher(int id, TranspositionTable table, AtomicBoolean stop) {
+        _id = id;
+        _table = table;
+        _stop = stop;
+        _random = id * RANDOM_MULTIPLIER + 1;
+        Arrays.fill(_fillMoves, Move.NONE);
+    }
+
+    /** Return the best move for the side to move on BOARD, as a packed
+     *  move, or Move.NONE if there is no move.  Searches with iterative
+     *  deepening up to MAXDEPTH, stopping when DEADLINE passes (never,
+     *  if it is Utils.NO_DEADLINE), when the shared stop flag is set, or
+     *  when the next
+     *  iteration is unlikely to finish in time.  Returns the best move
+     *  of the last completed iteration; each iteration tries the
+     *  previous one's best move first.  Helper searchers (ID > 0) with
+     *  odd IDs skip depth 1, so that helpers spread over two depths.
+     *  When splitting plies, iterations go up by half a move at a time,
+     *  and MAXDEPTH still counts whole moves.  BOARD is restored when
+     *  done. */
+    int search(Board board, int maxDepth, long deadline) {
+        long start = System.nanoTime();
+        _deadline = deadline;
+        _stopped = false;
+        _completedDepth = 0;
+        int sense = board.turn() == WHITE ? 1 : -1;
+        int[] moves = moveBuffer(0);
+        int n = board.generateMoves(board.turn(), moves);
+        int best = n == 0 ? Move.NONE : moves[0];
+        _previousBest = Move.NONE;
+        newSearch();
+        int scale = _split ? 2 : 1, completed = 0;
+        int first = _id == 0 ? 1 : 1 + (_id & 1);
+        for (int depth = first; depth <= scale * maxDepth && n > 1;
+             depth += 1) {
+            _lastFoundMove = Move.NONE;
+            _rootDepth = depth;
+            int score = findMove(board, depth, true, sense, -INFTY, INFTY);
+            if (_stopped) {
+                if (completed == 0 && _lastFoundMove != Move.NONE) {
+                    best = _lastFoundMove;
+                }
+                break;
+            }
+            best = _previousBest = _lastFoundMove;
+            completed = depth;
+            _completedDepth = depth / scale;
+            if (Math.abs(score) >= WINNING_VALUE
+                || Utils.halfPassed(start, deadline)) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Return the value of the position on BOARD, with the side whose
+     *  SENSE is given to move, as found by an alpha-beta search to DEPTH
+     *  levels with bounds ALPHA and BETA (see findMove), stopping when
+     *  DEADLINE passes (see Utils.passed) or the shared stop flag is set.
+     *  The result is meaningless if stopped() is then true. */
+    int score(Board board, int depth, int sense, int alpha, int beta,
+              long deadline) {
+        _deadline = deadline;
+        _stopped = _stop.get();
+        _previousBest = Move.NONE;
+        _rootDepth = _split ? 2 * depth : depth;
+        return findMove(board, _rootDepth, false, sense, alpha, beta);
+    }
+
+    /** Forget the killer moves and age the history tables, at the start
+     *  of a search from a new position. */
+    void newSearch() {
+        Arrays.fill(_killers, Move.NONE);
+        for (int i = 0; i < _fromToHistory.length; i += 1) {
+            _fromToHistory[i] >>= 1;
+            _spearHistory[i] >>= 1;
+        }
+    }
+
+    /** Iff ORDERING, order moves with killer moves and the history
+     *  heuristic (the default); otherwise, search them in generation
+     *  order after the hash move. */
+    void setMoveOrdering(boolean ordering) {
+        _ordering = ordering;
+    }
+
+    /** Iff SPLIT, search each move as two plies, the amazon move and
+     *  then the spear throw, each with its own move ordering, so that
+     *  the search can rank and cut off amazon moves before listing
+     *  their throws.  Depths then count half moves internally.  A
+     *  search that ends after an amazon move scores the position in
+     *  which the spear goes back to the square the amazon left.
+     *  Otherwise (the default), search whole moves. */
+    void setSplitPlies(boolean split) {
+        _split = split;
+    }
+
+    /** Search selectively, keeping at each node at ply p from my root
+     *  only the WIDTHS[p] moves (or amazon moves, when splitting plies,
+     *  where p counts whole moves) that score best by a cheap static
+     *  evaluation, plus the hash move.  Plies beyond the end of WIDTHS
+     *  use its last entry, and a width of 0 keeps all moves.  Nodes
+     *  whose children are leaves are never pruned, since scoring their
+     *  children costs as much as searching them.  With no WIDTHS (the
+     *  default), search full width. */
+    void setBeamWidths(int... widths) {
+        _beamWidths = widths.clone();
+    }
+
+    /** Iff REGIONS, use the board's division into regions (see
+     *  Board.region), the default: positions in which no region holds
+     *  amazons of both sides are scored by the moves left to each side
+     *  (see FillingSolver) and not searched further, and below the
+     *  root only moves in contested regions, plus one move filling the
+     *  mover's own territory, are searched (see regionMoves).  Positions
+     *  that are only partly settled are scored by my evaluator alone. */
+    void setRegions(boolean regions) {
+        _regions = regions;
+    }
+
+    /** Look up the values of small regions of settled positions in
+     *  TABLEBASE (none if null; see FillingSolver.setTablebase). */
+    void setTablebase(Tablebase tablebase) {
+        _filler.setTablebase(tablebase);
+        Arrays.fill(_fillKeys, 0L);
+        Arrays.fill(_fillMoves, Move.NONE);
+    }
+
+    /** Evaluate positions with an evaluator made from TEMPLATE (see
+     *  Evaluator.create). */
+    void setEvaluator(Evaluator template) {
+        _evaluator = template.create();
+    }
+
+    /** Return true iff my last search or score was cut short. */
+    boolean stopped() {
+        return _stopped;
+    }
+
+    /** Return the depth of the last iteration completed by the last
+     *  search. */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the number of positions visited by findMove since I was
+     *  created. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** The move found by the last call to one of the ...FindMove methods
+     *  below, as a packed move (see Move.pack). */
+    private int _lastFoundMove;
+
+    /** Find a move from position BOARD and return its value, recording
+     *  the move found in _lastFoundMove iff SAVEMOVE. The move
+     *  should have maximal value or have value > BETA if SENSE==1,
+     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
+     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
+     *  of the board value and does not set _lastMoveFound.  Results
+     *  (including static estimates, which are costly) go into the
+     *  transposition table, if any, which supplies cutoffs (except at
+     *  the root) and the first move to try.  Moves are searched by
+     *  searchMoves.  When splitting plies, DEPTH counts half moves. */
+    private int findMove(Board board, int depth, boolean saveMove, int sense,
+                         int alpha, int beta) {
+        _nodes += 1;
+        if ((_nodes & CLOCK_CHECK_INTERVAL) == 0
+            && (Utils.passed(_deadline) || _stop.get())) {
+            _stopped = true;
+        }
+        if (_stopped) {
+            return 0;
+        }
+        if (depth == 0 && _table == null || board.winner() != null
+            || !saveMove && settled(board)) {
+            return staticScore(board);
+        }
+        long key = board.hashKey();
+        int hashMove = Move.NONE;
+        if (_table != null) {
+            long entry = _table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                hashMove = TranspositionTable.move(entry);
+                if (!saveMove && TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    switch (TranspositionTable.bound(entry)) {
+                    case TranspositionTable.EXACT:
+                        return score;
+                    case TranspositionTable.LOWER:
+                        alpha = Math.max(alpha, score);
+                        break;
+                    default:
+                        beta = Math.min(beta, score);
+                        break;
+                    }
+                    if (alpha >= beta) {
+                        return score;
+                    }
+                }
+            }
+        }
+        if (depth == 0) {
+            int score = staticScore(board);
+            _table.store(key, 0, TranspositionTable.EXACT, score, Move.NONE);
+            return score;
+        }
+        int alpha0 = alpha, beta0 = beta;
+        int first = saveMove && _previousBest != Move.NONE
+            ? _previousBest : hashMove;
+        int best = searchMoves(board, _split ? AMAZONS : MOVES, Move.NONE,
+                               depth, saveMove, sense, alpha, beta, first);
+        if (_stopped) {
+            return best;
+        }
+        if (_table != null) {
+            int bound = best <= alpha0 ? TranspositionTable.UPPER
+                : best >= beta0 ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            _table.store(key, depth, bound, best, _bestMove);
+        }
+        return best;
+    }
+
+    /** Search the moves of KIND (MOVES, AMAZONS or THROWS) for the side
+     *  whose SENSE is given on BOARD, to DEPTH levels with bounds ALPHA
+     *  and BETA, and return the best value found, as for findMove.  For
+     *  THROWS, the moves are the spear throws completing packed amazon
+     *  move AMAZON; at DEPTH 0 there is no level left for them, and
+     *  only AMAZON itself (throwing back) is scored.  Sets _bestMove to
+     *  the whole move found, or Move.NONE if there was none, and
+     *  records it in _lastFoundMove iff SAVEMOVE.  Tries FIRST (or, for
+     *  AMAZONS, its amazon move) first, and then the rest in stages
+     *  (see orderMoves); those causing cutoffs become killers and gain
+     *  history credit.  In a selective search (see setBeamWidths), only
+     *  the best moves by selectBeam are tried, in its order. */
+    private int searchMoves(Board board, int kind, int amazon, int depth,
+                            boolean saveMove, int sense, int alpha, int beta,
+                            int first) {
+        int[] moves = moveBuffer(depth);
+        Piece side = sense == 1 ? WHITE : BLACK;
+        int n;
+        if (kind == MOVES) {
+            n = _regions && !saveMove ? regionMoves(board, side, moves)
+                : board.generateMoves(side, moves);
+        } else if (kind == AMAZONS) {
+            n = board.generateAmazonMoves(side, moves);
+        } else if (depth > 0) {
+            n = board.generateThrows(amazon, moves);
+        } else {
+            moves[0] = amazon;
+            n = 1;
+        }
+        if (_id > 0) {
+            perturb(moves, n);
+        }
+        int front = kind == AMAZONS ? amazonMove(first) : first;
+        int ply = _rootDepth - depth;
+        int width = kind == THROWS || depth < 2 ? 0
+            : beamWidth(_split ? ply / 2 : ply);
+        boolean pruned = width > 0 && width < n;
+        if (pruned) {
+            n = selectBeam(board, moves, n, width, sense, front,
+                           scoreBuffer(depth));
+        }
+        moveToFront(moves, n, front);
+        int ordered = _ordering && !pruned ? orderMoves(moves, n, ply) : n;
+        int best = -sense * INFTY, bestMove = Move.NONE;
+        for (int i = 0; i < n; i += 1) {
+            if (i >= ordered && i < ordered + HISTORY_PICKS) {
+                selectByHistory(moves, i, n, kind);
+            }
+            int after, move;
+            if (kind == AMAZONS) {
+                after = searchMoves(board, THROWS, moves[i], depth - 1,
+                                    false, sense, alpha, beta, first);
+                move = _bestMove;
+            } else {
+                board.makeMove(moves[i]);
+                after = findMove(board, Math.max(depth - 1, 0), false,
+                                 -sense, alpha, beta);
+                board.undo();
+                move = moves[i];
+            }
+            if (_stopped) {
+                return best;
+            }
+            if (sense * after > sense * best) {
+                best = after;
+                bestMove = move;
+                if (saveMove) {
+                    _lastFoundMove = move;
+                }
+                if (sense == 1) {
+                    alpha = Math.max(alpha, after);
+                } else {
+                    beta = Math.min(beta, after);
+                }
+                if (alpha >= beta) {
+                    if (_ordering) {
+                        recordCutoff(moves[i], ply, depth, kind);
+                    }
+                    break;
+                }
+            }
+        }
+        _bestMove = bestMove;
+        return best;
+    }
+
+    /** Return the beam width for nodes at PLY (0 for full width). */
+    private int beamWidth(int ply) {
+        if (_beamWidths.length == 0) {
+            return 0;
+        }
+        return _beamWidths[Math.min(ply, _beamWidths.length - 1)];
+    }
+
+    /** Score each of the N packed MOVES for the side whose SENSE is
+     *  given on BOARD by a cheap static evaluation of the position it
+     *  leads to, using SCORES (of length at least N) as scratch space,
+     *  and move the best WIDTH of them, best first, to the front of
+     *  MOVES.  KEEP, if among MOVES, always comes first.  Returns WIDTH.
+     *  BOARD is restored, and nothing is allocated. */
+    private int selectBeam(Board board, int[] moves, int n, int width,
+                           int sense, int keep, int[] scores) {
+        for (int i = 0; i < n; i += 1) {
+            if (moves[i] == keep) {
+                scores[i] = INFTY;
+                continue;
+            }
+            board.makeMove(moves[i]);
+            Piece winner = board.winner();
+            scores[i] = sense * (winner == null ? _beamEvaluator.score(board)
+                                 : winner == WHITE ? WINNING_VALUE
+                                 : -WINNING_VALUE);
+            board.undo();
+        }
+        for (int k = 0; k < width; k += 1) {
+            int best = k;
+            for (int i = k + 1; i < n; i += 1) {
+                if (scores[i] > scores[best]) {
+                    best = i;
+                }
+            }
+            int move = moves[best], score = scores[best];
+            moves[best] = moves[k];
+            scores[best] = scores[k];
+            moves[k] = move;
+            scores[k] = score;
+        }
+        return width;
+    }
+
+    /** Return the amazon move of packed MOVE, as listed by
+     *  Board.generateAmazonMoves, or Move.NONE if MOVE is. */
+    private static int amazonMove(int move) {
+        if (move == Move.NONE) {
+            return move;
+        }
+        return Move.pack(Move.fromIndex(move), Move.toIndex(move),
+                         Move.fromIndex(move));
+    }
+
+    /** If MOVE is among the first N entries of MOVES, move it to the
+     *  front, shifting the moves before it back by one. */
+    static void moveToFront(int[] moves, int n, int move) {
+        if (move == Move.NONE) {
+            return;
+        }
+        for (int i = 0; i < n; i += 1) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    /** Move the killer moves for PLY that are among the N MOVES to just
+     *  after the first move (which is the hash move or the previous
+     *  iteration's best, if there is one).  Returns the number of moves
+     *  thus placed, counting the first; the rest are to be picked in
+     *  order of their history scores. */
+    private int orderMoves(int[] moves, int n, int ply) {
+        int next = Math.min(n, 1);
+        if (ply < MAX_PLY) {
+            for (int k = 0; k < KILLERS; k += 1) {
+                int killer = _killers[ply * KILLERS + k];
+                if (killer == Move.NONE) {
+                    continue;
+                }
+                for (int i = next; i < n; i += 1) {
+                    if (moves[i] == killer) {
+                        moves[i] = moves[next];
+                        moves[next] = killer;
+                        next += 1;
+                        break;
+                    }
+                }
+            }
+        }
+        return next;
+    }
+
+    /** Swap the move with the highest history score among MOVES[I ..
+     *  N-1], which are moves of KIND, into MOVES[I]. */
+    private void selectByHistory(int[] moves, int i, int n, int kind) {
+        int best = i, bestScore = -1;
+        for (int k = i; k < n; k += 1) {
+            int score = history(moves[k], kind);
+            if (score > bestScore) {
+                best = k;
+                bestScore = score;
+            }
+        }
+        int tmp = moves[i];
+        moves[i] = moves[best];
+        moves[best] = tmp;
+    }
+
+    /** Return the history score of packed move MOVE, of KIND: the
+     *  credit of its amazon move (unless KIND is THROWS) plus that of
+     *  its spear throw from where the amazon lands (unless KIND is
+     *  AMAZONS). */
+    private int history(int move, int kind) {
+        int to = Move.toIndex(move), score = 0;
+        if (kind != THROWS) {
+            score += _fromToHistory[Move.fromIndex(move) * SQUARES + to];
+        }
+        if (kind != AMAZONS) {
+            score += _spearHistory[to * SQUARES + Move.spearIndex(move)];
+        }
+        return score;
+    }
+
+    /** Record that packed MOVE, of KIND, caused a cutoff at PLY with
+     *  DEPTH levels left to search: make it the first killer for PLY
+     *  and credit its history (the parts used by history(MOVE, KIND))
+     *  by DEPTH squared. */
+    private void recordCutoff(int move, int ply, int depth, int kind) {
+        if (ply < MAX_PLY && _killers[ply * KILLERS] != move) {
+            _killers[ply * KILLERS + 1] = _killers[ply * KILLERS];
+            _killers[ply * KILLERS] = move;
+        }
+        int to = Move.toIndex(move);
+        if (kind != THROWS) {
+            _fromToHistory[Move.fromIndex(move) * SQUARES + to]
+                += depth * depth;
+        }
+        if (kind != AMAZONS) {
+            _spearHistory[to * SQUARES + Move.spearIndex(move)]
+                += depth * depth;
+        }
+    }
+
+    /** Swap each of the first few of the N MOVES with a pseudo-randomly
+     *  chosen later one, so that helper searchers explore the tree in a
+     *  different order from the main one. */
+    private void perturb(int[] moves, int n) {
+        for (int i = 0; i < PERTURBED_MOVES && i < n - 1; i += 1) {
+            _random ^= _random << XORSHIFT_A;
+            _random ^= _random >>> XORSHIFT_B;
+            _random ^= _random << XORSHIFT_C;
+            int j = i + (int) Long.remainderUnsigned(_random, n - i);
+            int tmp = moves[i];
+            moves[i] = moves[j];
+            moves[j] = tmp;
+        }
+    }
+
+    /** Return the buffer for moves generated at search level DEPTH,
+     *  creating it if necessary.  Each level has its own buffer so that
+     *  searching below it does not disturb the moves it is iterating
+     *  over. */
+    private int[] moveBuffer(int depth) {
+        if (depth >= _moveBuffers.length) {
+            _moveBuffers = Arrays.copyOf(_moveBuffers, depth + 1);
+        }
+        if (_moveBuffers[depth] == null) {
+            _moveBuffers[depth] = new int[Board.MAX_MOVES];
+        }
+        return _moveBuffers[depth];
+    }
+
+    /** Store in MOVES, as packed moves, the moves for SIDE on BOARD
+     *  searched below the root when using regions, and return their
+     *  number: those in contested regions, plus the move by which my
+     *  FillingSolver would fill SIDE's own territory, if it has any,
+     *  standing in for all the others there.  SIDE is the side to move,
+     *  so the stand-in is cached under BOARD's hash key. */
+    private int regionMoves(Board board, Piece side, int[] moves) {
+        int n = board.generateContestedMoves(side, moves);
+        long key = board.hashKey();
+        int slot = (int) (key * RANDOM_MULTIPLIER >>> -FILL_SLOT_BITS);
+        int fill = _fillMoves[slot];
+        if (_fillKeys[slot] != key
+            || fill != Move.NONE && !board.isLegal(fill)) {
+            fill = _filler.bestMove(board, side);
+            _fillKeys[slot] = key;
+            _fillMoves[slot] = fill;
+        }
+        if (fill != Move.NONE) {
+            moves[n] = fill;
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Return the buffer for the beam scores of moves at search level
+     *  DEPTH, creating it if necessary (see moveBuffer). */
+    private int[] scoreBuffer(int depth) {
+        if (depth >= _scoreBuffers.length) {
+            _scoreBuffers = Arrays.copyOf(_scoreBuffers, depth + 1);
+        }
+        if (_scoreBuffers[depth] == null) {
+            _scoreBuffers[depth] = new int[Board.MAX_MOVES];
+        }
+        return _scoreBuffers[depth];
+    }
+
+    /** Return a heuristic value for BOARD: a win or loss if the game is
+     *  over, or settled (see settled) and decided (see settledScore),
+     *  and otherwise my evaluator's score. */
+    int staticScore(Board board) {
+        Piece winner = board.winner();
+        if (winner == BLACK) {
+            return -WINNING_VALUE;
+        } else if (winner == WHITE) {
+            return WINNING_VALUE;
+        } else if (settled(board)) {
+            return settledScore(board);
+        } else {
+            return _evaluator.score(board);
+        }
+    }
+
+    /** Return true iff I use regions and no region of BOARD holds
+     *  amazons of both sides, so that each side can only use up its own
+     *  territory. */
+    private boolean settled(Board board) {
+        return _regions && board.contestedRegions() == 0;
+    }
+
+    /** Return the value of settled BOARD, counting the moves left to
+     *  each side with my FillingSolver.  The side to move runs out of
+     *  moves first, and loses, unless it has more moves left.  If both
+     *  counts are exact, the result is a win for the side that will
+     *  win.  Otherwise the counts of large regions are only bounds, and
+     *  the result is SETTLED_VALUE, plus SETTLED_MOVE_VALUE for each
+     *  move by which the expected winner is ahead, for that side. */
+    private int settledScore(Board board) {
+        Piece mover = board.turn();
+        int moverMoves = _filler.moves(board, mover);
+        boolean exact = _filler.exact();
+        int margin = _filler.moves(board, mover.opponent()) - moverMoves;
+        exact &= _filler.exact();
+        int sense = mover == WHITE ? -1 : 1;
+        if (margin < 0) {
+            sense = -sense;
+            margin = -margin;
+        } else {
+            margin += 1;
+        }
+        return sense * (exact ? WINNING_VALUE
+                        : SETTLED_VALUE + margin * SETTLED_MOVE_VALUE);
+    }
+
+    /** The magnitude of the value of a settled position whose moves
+     *  left were not all counted exactly: more than any evaluator's
+     *  score, but less than a win. */
+    private static final int SETTLED_VALUE = WINNING_VALUE / 2;
+
+    /** The value of each move by which a side is ahead in a settled
+     *  position scored by SETTLED_VALUE. */
+    private static final int SETTLED_MOVE_VALUE = 1 << 16;
+
+    /** The clock and stop flag are read once every CLOCK_CHECK_INTERVAL
+     *  + 1 nodes. */
+    private static final int CLOCK_CHECK_INTERVAL = (1 << 10) - 1;
+
+    /** Log2 of the number of slots in the cache of stand-in moves. */
+    private static final int FILL_SLOT_BITS = 14;
+
+    /** Number of squares on the board. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Kinds of moves searched by searchMoves: whole moves, amazon
+     *  moves alone, and the spear throws completing an amazon move. */
+    private static final int MOVES = 0, AMAZONS = 1, THROWS = 2;
+
+    /** Number of killer moves kept per ply. */
+    private static final int KILLERS = 2;
+
+    /** Plies beyond this have no killer moves. */
+    private static final int MAX_PLY = 128;
+
+    /** Number of moves at each node, after the hash move and killers,
+     *  picked in order of history score; the rest are tried in
+     *  generation order. */
+    private static final int HISTORY_PICKS = 16;
+
+    /** Number of leading moves reordered at each node by helpers. */
+    private static final int PERTURBED_MOVES = 8;
+
+    /** Shift amounts for the xorshift generator used by perturb. */
+    private static final int XORSHIFT_A = 13, XORSHIFT_B = 7, XORSHIFT_C = 17;
+
+    /** Multiplier spreading helper IDs into xorshift seeds. */
+    private static final long RANDOM_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** My number (0 for the main searcher). */
+    private final int _id;
+
+    /** The shared transposition table, or null. */
+    private final TranspositionTable _table;
+
+    /** Shared flag telling all searchers of a search to stop. */
+    private final AtomicBoolean _stop;
+
+    /** State of my xorshift generator. */
+    private long _random;
+
+    /** My static evaluation function. */
+    private Evaluator _evaluator = new MobilityEvaluator();
+
+    /** Counts the moves left in settled positions. */
+    private final FillingSolver _filler = new FillingSolver();
+
+    /** The cache of stand-in moves (see regionMoves): the hash keys of
+     *  the positions and their moves, in each of 2**FILL_SLOT_BITS
+     *  slots.  Empty slots hold the key 0 and Move.NONE. */
+    private final long[] _fillKeys = new long[1 << FILL_SLOT_BITS];
+    private final int[] _fillMoves = new int[1 << FILL_SLOT_BITS];
+
+    /** True if I order moves by killers and history. */
+    private boolean _ordering = true;
+
+    /** True if I search amazon moves and spear throws as separate
+     *  plies. */
+    private boolean _split;
+
+    /** True if I use the board's regions (see setRegions). */
+    private boolean _regions = true;
+
+    /** Beam widths by ply (see setBeamWidths); empty for full width. */
+    private int[] _beamWidths = new int[0];
+
+    /** The cheap evaluation by which selective searches choose the
+     *  moves to keep. */
+    private final Evaluator _beamEvaluator = new MobilityEvaluator();
+
+    /** Killer moves: the KILLERS latest moves to cause cutoffs at each
+     *  ply, most recent first, at [ply * KILLERS ...]. */
+    private final int[] _killers = new int[MAX_PLY * KILLERS];
+
+    /** History credit of amazon moves, indexed by from * SQUARES + to. */
+    private final int[] _fromToHistory =
+        new int[SQUARES * SQUARES];
+
+    /** History credit of spear throws, indexed by to * SQUARES + spear,
+     *  where to is the square the amazon lands on. */
+    private final int[] _spearHistory =
+        new int[SQUARES * SQUARES];
+
+    /** Depth of the current iteration, from which the ply (distance from
+     *  the root) of each node follows. */
+    private int _rootDepth;
+
+    /** Move buffers for each search level (index 0 holds the root's
+     *  moves while search counts them). */
+    private int[][] _moveBuffers = new int[1][];
+
+    /** Buffers for the beam scores of each search level's moves. */
+    private int[][] _scoreBuffers = new int[1][];
+
+    /** Number of positions visited by findMove. */
+    private long _nodes;
+
+    /** Value of System.nanoTime() at which the current search must
+     *  stop. */
+    private long _deadline;
+
+    /** True when the current search has run out of time or been
+     *  stopped. */
+    private boolean _stopped;
+
+    /** Depth of the last completed iteration of the current search. */
+    private int _completedDepth;
+
+    /** Best move of the previous iteration, or Move.NONE. */
+    private int _previousBest;
+
+    /** The whole move found by the last call to searchMoves, or
+     *  Move.NONE. */
+    private int _bestMove;
+}
@@ -43,20 +43,7 @@ final class Square {
 
     /** Return true iff THIS - TO is a valid queen move. */
     boolean isQueenMove(Square to) {
-        if (this != null && to != null) {
-            int dr = Math.abs(to.row() - this.row());
-            int dc = Math.abs(to.col() - this.col());
-            if (dr < 10 && dc < 10) {
-                if (dr == dc && dc != 0) {
-                    return true;
-                } else if (dr > dc && dc == 0) {
-                    return true;
-                } else if (dc > dr && dr == 0) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return to != null && direction(_index, to._index) >= 0;
     }
 
     /** Definitions of direction for queenMove.  DIR[k] = (dcol, drow)
@@ -67,48 +54,76 @@ final class Square {
         { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 }
     };
 
+    /** The number of queen-move directions. */
+    static final int DIRECTIONS = DIR.length;
+
     /** Return the Square that is STEPS>0 squares away from me in direction
      *  DIR, or null if there is no such square.
      *  DIR = 0 for north, 1 for northeast, 2 for east, etc., up to 7 for west.
      *  If DIR has another value, return null. Thus, unless the result
      *  is null the resulting square is a queen move away from me. */
-
     Square queenMove(int dir, int steps) {
-        if (dir == -1  || steps < 0 && steps < 10) {
+        if (dir < 0 || dir >= DIRECTIONS) {
             return null;
         }
-        int colChange = (DIR[dir][0] * steps) + this._col;
-        int rowChange = (DIR[dir][1] * steps) + this._row;
-        if (exists(colChange, rowChange - 1)) {
-            return sq(colChange, rowChange - 1);
+        int[] ray = RAYS[_index][dir];
+        if (steps <= 0 || steps > ray.length) {
+            return null;
         }
-        return null;
+        return SQUARES[ray[steps - 1]];
     }
 
     /** Return the direction (an int as defined in the documentation
      *  for queenMove) of the queen move THIS-TO. */
     int direction(Square to) {
         assert isQueenMove(to);
-        boolean slope = Math.abs(to.col() - this.col())
-                == Math.abs(this.row() - to.row());
-        if (to.col() == this.col() && to.row() > this.row()) {
-            return 0;
-        } else if (to.col() > this.col() && to.row() > this.row() && slope) {
-            return 1;
-        } else if (to.col() > this.col() && to.row() == this.row()) {
-            return 2;
-        } else if (to.col() > this.col() && to.row() < this.row() && slope) {
-            return 3;
-        } else if (to.col() == this.col() && to.row() < this.row()) {
-            return 4;
-        } else if (to.col() < this.col() && to.row() < this.row() && slope) {
-            return 5;
-        } else if (to.col() < this.col() && to.row() == this.row()) {
-            return 6;
-        } else if (to.col() < this.col() && to.row() > this.row() && slope) {
-            return 7;
-        }
-        return -1;
+        return direction(_index, to._index);
+    }
+
+    /** Return the indices of the squares reached by successive steps
+     *  in direction DIR from the square with index FROM, nearest first,
+     *  up to the edge of the board.  The result must not be modified. */
+    static int[] ray(int from, int dir) {
+        return RAYS[from][dir];
+    }
+
+    /** Return the direction of the queen move from the square with
+     *  index FROM to the square with index TO, or -1 if it is not a
+     *  queen move. */
+    static int direction(int from, int to) {
+        return DIRECTION[from * SQUARES.length + to];
+    }
+
+    /** Return the low word (squares 0-63) of the mask of squares
+     *  strictly between the squares with indices FROM and TO, which
+     *  must be a queen move apart. */
+    static long betweenLo(int from, int to) {
+        return BETWEEN_LO[from * SQUARES.length + to];
+    }
+
+    /** Return the high word (squares 64-99) of the mask of squares
+     *  strictly between the squares with indices FROM and TO, which
+     *  must be a queen move apart. */
+    static long betweenHi(int from, int to) {
+        return BETWEEN_HI[from * SQUARES.length + to];
+    }
+
+    /** Return the low word (squares 0-63) of the mask of the squares
+     *  in ray(FROM, DIR). */
+    static long rayLo(int from, int dir) {
+        return RAY_LO[from * DIRECTIONS + dir];
+    }
+
+    /** Return the high word (squares 64-99) of the mask of the squares
+     *  in ray(FROM, DIR). */
+    static long rayHi(int from, int dir) {
+        return RAY_HI[from * DIRECTIONS + dir];
+    }
+
+    /** Return the change in square index made by one step in direction
+     *  DIR. */
+    static int step(int dir) {
+        return DIR[dir][1] * Board.SIZE + DIR[dir][0];
     }
 
     @Override
@@ -172,10 +187,63 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** RAYS[s][d] is the list of indices of squares reached by successive
+     *  steps in direction d from square s, nearest first. */
+    private static final int[][][] RAYS =
+        new int[SQUARES.length][DIRECTIONS][];
+
+    /** DIRECTION[from * 100 + to] is the direction of the queen move
+     *  from-to, or -1 if there is none. */
+    private static final byte[] DIRECTION =
+        new byte[SQUARES.length * SQUARES.length];
+
+    /** BETWEEN_LO[from * 100 + to] and BETWEEN_HI[from * 100 + to] are
+     *  the low and high words of the mask of squares strictly between
+     *  from and to, if from-to is a queen move. */
+    private static final long[]
+        BETWEEN_LO = new long[SQUARES.length * SQUARES.length],
+        BETWEEN_HI = new long[SQUARES.length * SQUARES.length];
+
+    /** RAY_LO[s * DIRECTIONS + d] and RAY_HI[s * DIRECTIONS + d] are the
+     *  low and high words of the mask of the squares in RAYS[s][d]. */
+    private static final long[]
+        RAY_LO = new long[SQUARES.length * DIRECTIONS],
+        RAY_HI = new long[SQUARES.length * DIRECTIONS];
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        Arrays.fill(DIRECTION, (byte) -1);
+        for (int from = 0; from < SQUARES.length; from += 1) {
+            for (int dir = 0; dir < DIRECTIONS; dir += 1) {
+                int col = from % Board.SIZE, row = from / Board.SIZE;
+                int len = 0;
+                while (exists(col + DIR[dir][0] * (len + 1),
+                              row + DIR[dir][1] * (len + 1))) {
+                    len += 1;
+                }
+                int[] ray = RAYS[from][dir] = new int[len];
+                long lo, hi;
+                lo = hi = 0;
+                for (int k = 0; k < len; k += 1) {
+                    col += DIR[dir][0];
+                    row += DIR[dir][1];
+                    ray[k] = row * Board.SIZE + col;
+                    int pair = from * SQUARES.length + ray[k];
+                    DIRECTION[pair] = (byte) dir;
+                    BETWEEN_LO[pair] = lo;
+                    BETWEEN_HI[pair] = hi;
+                    if (ray[k] < Board.LO_BITS) {
+                        lo |= 1L << ray[k];
+                    } else {
+                        hi |= 1L << (ray[k] - Board.LO_BITS);
+                    }
+                }
+                RAY_LO[from * DIRECTIONS + dir] = lo;
+                RAY_HI[from * DIRECTIONS + dir] = hi;
+            }
+        }
     }
 
     /** My index position. */
@@ -0,0 +1,512 @@
+package amazons;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static amazons.Board.LO_BITS;
+import static amazons.Board.bitHi;
+import static amazons.Board.bitLo;
+import static amazons.Board.has;
+
+/** An endgame tablebase: the most moves the amazons of one side can make
+ *  in a region (as FillingSolver counts them), for every region of at
+ *  most squares() squares holding one or two amazons of that side.  The
+ *  value of a region does not change when the region is moved, turned
+ *  or reflected, so each is stored once, under a canonical key: of the
+ *  region's eight images under the symmetries of the board, each moved
+ *  to touch the bottom and left edges, the one with the least mask of
+ *  squares (as for Board.maskLo and Board.maskHi, with its amazons
+ *  encoded in the spare high bits).  The keys and values are kept in an
+ *  open-addressing hash table of two longs per slot, so a lookup takes
+ *  one canonicalization and, nearly always, one probe.
+ *
+ *  <p>The table is generated by retrograde analysis: regions are
+ *  solved in order of size, starting from single squares, and every
+ *  move in a region leaves smaller regions (one square is filled by a
+ *  spear) whose values are already in the table.  The regions of each
+ *  size are made by adding a square to those of the size before, in
+ *  every way, keeping the canonical ones.  The file is a header of
+ *  HEADER_LONGS longs (MAGIC, the most squares, the number of slots
+ *  and the number of regions) followed by the slots, and is used
+ *  straight from a read-only mapping, so only the pages actually
+ *  probed are ever read.  Files are made from the command line:
+ *      java amazons.Tablebase FILE [SQUARES]
+ *  @author William Tai
+ */
+class Tablebase {
+
+    /** First long of a tablebase file (with the format's version in its
+     *  low byte). */
+    static final long MAGIC = 0x616d617a6f6e4201L;
+
+    /** Longs in a tablebase file's header. */
+    static final int HEADER_LONGS = 4;
+
+    /** Default and largest numbers of squares (empty squares plus
+     *  amazons) in the regions of a tablebase. */
+    static final int DEFAULT_SQUARES = 8, MAX_SQUARES = 9;
+
+    /** The value of a region not in a tablebase. */
+    static final int UNKNOWN = -1;
+
+    /** Generate a tablebase of regions of at most ARGS[1] squares
+     *  (DEFAULT_SQUARES if absent) and write it to the file named by
+     *  ARGS[0]. */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2
+            || args.length == 2 && !args[1].matches("\\d+")) {
+            Utils.fatal("Usage: java amazons.Tablebase FILE [SQUARES]%n");
+        }
+        int squares = args.length == 2 ? Integer.parseInt(args[1])
+            : DEFAULT_SQUARES;
+        if (squares < 1 || squares > MAX_SQUARES) {
+            Utils.fatal("SQUARES must be from 1 to %d%n", MAX_SQUARES);
+        }
+        long start = System.nanoTime();
+        Tablebase table = generate(squares);
+        try {
+            table.write(Paths.get(args[0]));
+        } catch (IOException excp) {
+            Utils.fatal("Could not write tablebase: %s%n",
+                        excp.getMessage());
+        }
+        System.out.printf("%d regions in %d slots, %.1f s%n", table.size(),
+                          table.slots(), (System.nanoTime() - start) / 1e9);
+    }
+
+    /** A tablebase of regions of at most SQUARES squares, whose table of
+     *  SIZE regions is in the longs of BUFFER after its header. */
+    private Tablebase(LongBuffer buffer, int squares, int size) {
+        _buffer = buffer;
+        _squares = squares;
+        _size = size;
+        _mask = (buffer.capacity() - HEADER_LONGS) / 2 - 1;
+    }
+
+    /** Return the tablebase in FILE, which is mapped into memory
+     *  read-only.  Throws IOException if FILE cannot be read or is not a
+     *  tablebase. */
+    static Tablebase open(Path file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_LONGS * Long.BYTES) {
+                throw new IOException(file + " is not a tablebase");
+            }
+            LongBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length)
+                .asLongBuffer();
+            long squares = buffer.get(1), slots = buffer.get(2),
+                size = buffer.get(3);
+            if (buffer.get(0) != MAGIC || squares < 1
+                || squares > MAX_SQUARES || Long.bitCount(slots) != 1
+                || size < 0 || size >= slots
+                || length != (HEADER_LONGS + 2 * slots) * Long.BYTES) {
+                throw new IOException(file + " is not a tablebase");
+            }
+            return new Tablebase(buffer, (int) squares, (int) size);
+        }
+    }
+
+    /** Return the largest number of squares in my regions. */
+    int squares() {
+        return _squares;
+    }
+
+    /** Return the number of regions I hold. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of slots in my table. */
+    int slots() {
+        return _mask + 1;
+    }
+
+    /** Return the most moves the amazons AMAZONSLO, AMAZONSHI can make
+     *  over the empty squares EMPTYLO, EMPTYHI (as for Board.maskLo and
+     *  Board.maskHi), which with the amazons must form a single region,
+     *  or UNKNOWN if that region is not in this tablebase.  KEY, of
+     *  length at least 2, is scratch space, so that a lookup allocates
+     *  nothing and threads sharing a tablebase can each use their own. */
+    int value(long emptyLo, long emptyHi, long amazonsLo, long amazonsHi,
+              long[] key) {
+        int amazons = Long.bitCount(amazonsLo) + Long.bitCount(amazonsHi);
+        if (amazons == 0 || amazons > MAX_AMAZONS
+            || amazons + Long.bitCount(emptyLo) + Long.bitCount(emptyHi)
+               > _squares) {
+            return UNKNOWN;
+        }
+        canonical(emptyLo, emptyHi, amazonsLo, amazonsHi, key);
+        int slot = find(key[0], key[1]);
+        long hi = _buffer.get(HEADER_LONGS + 2 * slot + 1);
+        return hi == 0 ? UNKNOWN : (int) (hi >>> VALUE_SHIFT);
+    }
+
+    /** Return the slot holding the canonical key LO, HI, or the empty
+     *  slot where it would go. */
+    private int find(long lo, long hi) {
+        long h = lo * HASH_MULTIPLIER ^ hi;
+        h *= HASH_MULTIPLIER;
+        int slot = (int) (h >>> Integer.SIZE) & _mask;
+        while (true) {
+            long storedHi = _buffer.get(HEADER_LONGS + 2 * slot + 1);
+            if (storedHi == 0
+                || (storedHi & KEY_HI_MASK) == hi
+                && _buffer.get(HEADER_LONGS + 2 * slot) == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & _mask;
+        }
+    }
+
+    /** Write this tablebase to FILE. */
+    void write(Path file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.READ,
+                              StandardOpenOption.WRITE)) {
+            long length = (long) _buffer.capacity() * Long.BYTES;
+            LongBuffer out =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, length)
+                .asLongBuffer();
+            out.put(_buffer.duplicate().clear());
+        }
+    }
+
+    /** Return a new tablebase, in memory, of all regions of at most
+     *  SQUARES squares (from 1 to MAX_SQUARES) holding one or two
+     *  amazons, generated by retrograde analysis (see the class
+     *  comment). */
+    static Tablebase generate(int squares) {
+        Tablebase table = new Tablebase(emptyTable(MIN_SLOTS, squares),
+                                        squares, 0);
+        long[] key = new long[2];
+        List<long[]> shapes = new ArrayList<>();
+        shapes.add(new long[] { 1, 0 });
+        for (int size = 1; size <= squares; size += 1) {
+            if (size > 1) {
+                shapes = grow(shapes, key);
+            }
+            for (long[] shape : shapes) {
+                table.solve(shape[0], shape[1], key);
+            }
+        }
+        return table;
+    }
+
+    /** Return the canonical regions made by adding one square to each
+     *  of the canonical regions in SHAPES, in every way, using KEY for
+     *  scratch. */
+    private static List<long[]> grow(List<long[]> shapes, long[] key) {
+        HashSet<List<Long>> seen = new HashSet<>();
+        List<long[]> result = new ArrayList<>();
+        int shift = Board.SIZE + 1;
+        for (long[] shape : shapes) {
+            long lo = shape[0] << shift,
+                hi = shape[1] << shift | shape[0] >>> (Long.SIZE - shift);
+            for (int sq : squares(lo, hi)) {
+                for (int nb : Board.neighbors(sq)) {
+                    if (has(lo, hi, nb)) {
+                        continue;
+                    }
+                    canonical(lo | bitLo(nb), hi | bitHi(nb), 0, 0, key);
+                    if (seen.add(Arrays.asList(key[0], key[1]))) {
+                        result.add(key.clone());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Solve and store every placement of one or two amazons in the
+     *  region SHAPELO, SHAPEHI (placed at the lower left corner of the
+     *  board), whose smaller regions are all solved, using KEY for
+     *  scratch. */
+    private void solve(long shapeLo, long shapeHi, long[] key) {
+        int[] squares = squares(shapeLo, shapeHi);
+        for (int i = 0; i < squares.length; i += 1) {
+            for (int j = i; j < squares.length; j += 1) {
+                long amazonsLo = bitLo(squares[i]) | bitLo(squares[j]),
+                    amazonsHi = bitHi(squares[i]) | bitHi(squares[j]);
+                long emptyLo = shapeLo & ~amazonsLo,
+                    emptyHi = shapeHi & ~amazonsHi;
+                canonical(emptyLo, emptyHi, amazonsLo, amazonsHi, key);
+                int slot = find(key[0], key[1]);
+                if (_buffer.get(HEADER_LONGS + 2 * slot + 1) != 0) {
+                    continue;
+                }
+                int value = best(emptyLo, emptyHi, amazonsLo, amazonsHi);
+                store(slot, key[0], key[1], value);
+            }
+        }
+    }
+
+    /** Return the most moves the amazons AMAZONSLO, AMAZONSHI can make
+     *  over the empty squares EMPTYLO, EMPTYHI, forming one region all
+     *  of whose smaller regions are in the table: one more than the
+     *  best total of the regions left by any move, or 0 if there is no
+     *  move. */
+    private int best(long emptyLo, long emptyHi,
+                     long amazonsLo, long amazonsHi) {
+        int bound = Long.bitCount(emptyLo) + Long.bitCount(emptyHi);
+        int best = 0;
+        for (int from : squares(amazonsLo, amazonsHi)) {
+            long movedLo = amazonsLo & ~bitLo(from),
+                movedHi = amazonsHi & ~bitHi(from);
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (!has(emptyLo, emptyHi, to)) {
+                        break;
+                    }
+                    long openLo = (emptyLo | bitLo(from)) & ~bitLo(to),
+                        openHi = (emptyHi | bitHi(from)) & ~bitHi(to);
+                    for (int dir2 = 0; dir2 < Square.DIRECTIONS;
+                         dir2 += 1) {
+                        for (int spear : Square.ray(to, dir2)) {
+                            if (!has(openLo, openHi, spear)) {
+                                break;
+                            }
+                            best = Math.max(best, 1
+                                + solved(openLo & ~bitLo(spear),
+                                         openHi & ~bitHi(spear),
+                                         movedLo | bitLo(to),
+                                         movedHi | bitHi(to)));
+                            if (best == bound) {
+                                return best;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Return the total value of the regions holding the amazons
+     *  AMAZONSLO, AMAZONSHI over the empty squares EMPTYLO, EMPTYHI,
+     *  all of which must be in the table. */
+    private int solved(long emptyLo, long emptyHi,
+                       long amazonsLo, long amazonsHi) {
+        int total = 0;
+        long leftLo = amazonsLo, leftHi = amazonsHi;
+        long openLo = emptyLo | amazonsLo, openHi = emptyHi | amazonsHi;
+        while ((leftLo | leftHi) != 0) {
+            int amazon = leftLo != 0 ? Long.numberOfTrailingZeros(leftLo)
+                : LO_BITS + Long.numberOfTrailingZeros(leftHi);
+            long regionLo = bitLo(amazon), regionHi = bitHi(amazon);
+            long frontierLo = regionLo, frontierHi = regionHi;
+            while ((frontierLo | frontierHi) != 0) {
+                long nextLo = 0, nextHi = 0;
+                for (int sq : squares(frontierLo, frontierHi)) {
+                    for (int nb : Board.neighbors(sq)) {
+                        nextLo |= bitLo(nb);
+                        nextHi |= bitHi(nb);
+                    }
+                }
+                frontierLo = nextLo & openLo & ~regionLo;
+                frontierHi = nextHi & openHi & ~regionHi;
+                regionLo |= frontierLo;
+                regionHi |= frontierHi;
+            }
+            leftLo &= ~regionLo;
+            leftHi &= ~regionHi;
+            int value = value(regionLo & emptyLo, regionHi & emptyHi,
+                              regionLo & amazonsLo, regionHi & amazonsHi,
+                              _solvedKey);
+            if (value == UNKNOWN) {
+                throw new IllegalStateException("region not yet solved");
+            }
+            total += value;
+        }
+        return total;
+    }
+
+    /** Store VALUE under the canonical key LO, HI in empty SLOT, growing
+     *  the table if it becomes more than half full. */
+    private void store(int slot, long lo, long hi, int value) {
+        _buffer.put(HEADER_LONGS + 2 * slot, lo);
+        _buffer.put(HEADER_LONGS + 2 * slot + 1,
+                    hi | (long) value << VALUE_SHIFT);
+        _size += 1;
+        if (2 * _size > _mask) {
+            LongBuffer old = _buffer;
+            int oldSlots = _mask + 1;
+            _buffer = emptyTable(2 * oldSlots, _squares);
+            _mask = 2 * oldSlots - 1;
+            for (int i = 0; i < oldSlots; i += 1) {
+                long oldLo = old.get(HEADER_LONGS + 2 * i),
+                    oldHi = old.get(HEADER_LONGS + 2 * i + 1);
+                if (oldHi != 0) {
+                    int s = find(oldLo, oldHi & KEY_HI_MASK);
+                    _buffer.put(HEADER_LONGS + 2 * s, oldLo);
+                    _buffer.put(HEADER_LONGS + 2 * s + 1, oldHi);
+                }
+            }
+        }
+        _buffer.put(3, _size);
+    }
+
+    /** Return an empty table of SLOTS slots (a power of two) for regions
+     *  of at most SQUARES squares, with its header, in memory. */
+    private static LongBuffer emptyTable(int slots, int squares) {
+        LongBuffer buffer = LongBuffer.allocate(HEADER_LONGS + 2 * slots);
+        buffer.put(0, MAGIC);
+        buffer.put(1, squares);
+        buffer.put(2, slots);
+        return buffer;
+    }
+
+    /** Store in KEY[0] and KEY[1] the canonical key of the region whose
+     *  empty squares are EMPTYLO, EMPTYHI and whose amazons (none, one
+     *  or two) are AMAZONSLO, AMAZONSHI.  Allocates nothing. */
+    private static void canonical(long emptyLo, long emptyHi,
+                                  long amazonsLo, long amazonsHi,
+                                  long[] key) {
+        long allLo = emptyLo | amazonsLo, allHi = emptyHi | amazonsHi;
+        key[0] = key[1] = -1;
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            for (long lo = allLo, hi = allHi; (lo | hi) != 0;) {
+                int sq = lo != 0 ? Long.numberOfTrailingZeros(lo)
+                    : LO_BITS + Long.numberOfTrailingZeros(hi);
+                if (lo != 0) {
+                    lo &= lo - 1;
+                } else {
+                    hi &= hi - 1;
+                }
+                int image = image(sym, sq);
+                minX = Math.min(minX, image % IMAGE_BASE);
+                minY = Math.min(minY, image / IMAGE_BASE);
+            }
+            long imageLo = 0, imageHi = 0;
+            int first = Board.SIZE * Board.SIZE, second = first;
+            for (long lo = allLo, hi = allHi; (lo | hi) != 0;) {
+                int sq = lo != 0 ? Long.numberOfTrailingZeros(lo)
+                    : LO_BITS + Long.numberOfTrailingZeros(hi);
+                if (lo != 0) {
+                    lo &= lo - 1;
+                } else {
+                    hi &= hi - 1;
+                }
+                int local = local(image(sym, sq), minX, minY);
+                if (!has(amazonsLo, amazonsHi, sq)) {
+                    imageLo |= bitLo(local);
+                    imageHi |= bitHi(local);
+                } else if (local < first) {
+                    second = first;
+                    first = local;
+                } else {
+                    second = Math.min(second, local);
+                }
+            }
+            imageHi |= (long) amazonCode(first, second) << AMAZON_SHIFT;
+            if (Long.compareUnsigned(imageHi, key[1]) < 0
+                || imageHi == key[1]
+                && Long.compareUnsigned(imageLo, key[0]) < 0) {
+                key[0] = imageLo;
+                key[1] = imageHi;
+            }
+        }
+    }
+
+    /** Return the image of the square with index SQ under symmetry SYM
+     *  (0 to 7) of the board, as x + IMAGE_BASE * y, where x and y may
+     *  be negative. */
+    private static int image(int sym, int sq) {
+        int x = sq % Board.SIZE, y = sq / Board.SIZE;
+        if ((sym & 1) != 0) {
+            x = -x;
+        }
+        if ((sym & 2) != 0) {
+            y = -y;
+        }
+        if ((sym & 4) != 0) {
+            int t = x;
+            x = y;
+            y = t;
+        }
+        return (x + Board.SIZE) + IMAGE_BASE * (y + Board.SIZE);
+    }
+
+    /** Return the square index of IMAGE (as from image) moved left by
+     *  MINX and down by MINY. */
+    private static int local(int image, int minX, int minY) {
+        return (image / IMAGE_BASE - minY) * Board.SIZE
+            + image % IMAGE_BASE - minX;
+    }
+
+    /** Return the code of amazons on the squares with indices FIRST and
+     *  SECOND (FIRST < SECOND), either being SIZE * SIZE if absent. */
+    private static int amazonCode(int first, int second) {
+        int none = Board.SIZE * Board.SIZE;
+        return (first == none ? 0 : first + 1)
+            | (second == none ? 0 : second + 1) << AMAZON_BITS;
+    }
+
+    /** Return the indices of the squares in the mask LO, HI, in
+     *  increasing order. */
+    private static int[] squares(long lo, long hi) {
+        int[] result = new int[Long.bitCount(lo) + Long.bitCount(hi)];
+        int n = 0;
+        for (; lo != 0; lo &= lo - 1) {
+            result[n] = Long.numberOfTrailingZeros(lo);
+            n += 1;
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            result[n] = LO_BITS + Long.numberOfTrailingZeros(hi);
+            n += 1;
+        }
+        return result;
+    }
+
+    /** The most amazons in a region of a tablebase. */
+    private static final int MAX_AMAZONS = 2;
+
+    /** Number of symmetries of the board. */
+    private static final int SYMMETRIES = 8;
+
+    /** Base of the encoding of images of squares (see image). */
+    private static final int IMAGE_BASE = 4 * Board.SIZE;
+
+    /** Layout of the high word of a slot: the high word of the mask of
+     *  empty squares in bits 0-35, the code of the amazons (two
+     *  AMAZON_BITS-bit fields, each a square index plus one, or 0 for
+     *  none) from AMAZON_SHIFT, and the value from VALUE_SHIFT. */
+    private static final int AMAZON_SHIFT = 36, AMAZON_BITS = 7,
+        VALUE_SHIFT = 56;
+
+    /** Mask of the key bits of the high word of a slot. */
+    private static final long KEY_HI_MASK = (1L << VALUE_SHIFT) - 1;
+
+    /** Number of slots in the table of a new tablebase. */
+    private static final int MIN_SLOTS = 1 << 10;
+
+    /** Multiplier used to hash keys. */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** The table (with the file's header), mapped or in memory. */
+    private LongBuffer _buffer;
+
+    /** The most squares in my regions. */
+    private final int _squares;
+
+    /** Number of regions in the table. */
+    private int _size;
+
+    /** Mask selecting a slot from a hash. */
+    private int _mask;
+
+    /** Scratch space for the lookups of generate. */
+    private final long[] _solvedKey = new long[2];
+}
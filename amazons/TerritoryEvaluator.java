@@ -0,0 +1,265 @@
+package amazons;
+
+import java.util.Arrays;
+
+import static amazons.Piece.*;
+
+/** An Evaluator that scores a position by the territory each side
+ *  controls.  For each empty square it finds how many queen moves and
+ *  how many king moves (single steps) the nearest amazon of each side
+ *  needs to reach it, and combines four terms:
+ *  <ul>
+ *  <li>queen territory: +1 for each square White reaches in fewer queen
+ *      moves than Black, -1 for the reverse, and a small bonus for the
+ *      side to move when both need the same number;
+ *  <li>king territory: the same, counting king moves;
+ *  <li>queen position: 2(2^-w - 2^-b) summed over squares, where w and
+ *      b are the queen distances, favoring nearby squares;
+ *  <li>king position: (b - w) / 6, limited to [-1, 1], summed over
+ *      squares, with w and b the king distances.
+ *  </ul>
+ *  Each term has a tunable weight.  Distances come from breadth-first
+ *  searches over preallocated arrays, so scoring allocates nothing.
+ *  The terms are computed from integer totals (see tally), which
+ *  subclasses may compute another way.
+ *  @author William Tai
+ */
+class TerritoryEvaluator implements Evaluator {
+
+    /** My name, as used by Evaluator.named. */
+    static final String NAME = "territory";
+
+    /** Number of squares on the board. */
+    static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Distance recorded for squares a side cannot reach: more than any
+     *  real distance. */
+    static final int UNREACHED = SQUARES;
+
+    /** Default weights of the queen-territory, king-territory,
+     *  queen-position and king-position terms, and the default tie
+     *  bonus for the side to move. */
+    static final double
+        DEFAULT_QUEEN_TERRITORY = 1.0, DEFAULT_KING_TERRITORY = 0.4,
+        DEFAULT_QUEEN_POSITION = 0.3, DEFAULT_KING_POSITION = 0.3,
+        DEFAULT_TEMPO = 0.2;
+
+    /** An evaluator with the default weights. */
+    TerritoryEvaluator() {
+        this(DEFAULT_QUEEN_TERRITORY, DEFAULT_KING_TERRITORY,
+             DEFAULT_QUEEN_POSITION, DEFAULT_KING_POSITION, DEFAULT_TEMPO);
+    }
+
+    /** An evaluator weighting the queen-territory, king-territory,
+     *  queen-position and king-position terms by QUEENTERRITORY,
+     *  KINGTERRITORY, QUEENPOSITION and KINGPOSITION, and counting
+     *  TEMPO for the side to move on squares both sides reach equally
+     *  fast. */
+    TerritoryEvaluator(double queenTerritory, double kingTerritory,
+                       double queenPosition, double kingPosition,
+                       double tempo) {
+        _queenTerritory = queenTerritory;
+        _kingTerritory = kingTerritory;
+        _queenPosition = queenPosition;
+        _kingPosition = kingPosition;
+        _tempo = tempo;
+    }
+
+    @Override
+    public int score(Board board) {
+        tally(board);
+        double tempo = board.turn() == WHITE ? _tempo : -_tempo;
+        double position = 0;
+        for (int d = 1; d < UNREACHED; d += 1) {
+            position += 2 * POWERS[d]
+                * (_queenCounts[0][d] - _queenCounts[1][d]);
+        }
+        return (int) Math.round(SCALE * (_queenTerritory
+                                         * (_queenDiff + tempo * _queenTies)
+                                         + _kingTerritory
+                                         * (_kingDiff + tempo * _kingTies)
+                                         + _queenPosition * position
+                                         + _kingPosition * _kingSum
+                                         / KING_SPAN));
+    }
+
+    /** Set the totals from which score computes the value of BOARD:
+     *  _queenDiff and _kingDiff, the numbers of empty squares White
+     *  reaches in fewer queen or king moves than Black, less those Black
+     *  reaches in fewer; _queenTies and _kingTies, the numbers both
+     *  reach in the same number of moves; _queenCounts, the numbers of
+     *  empty squares at each queen distance from each side; and
+     *  _kingSum, the sum over empty squares of the difference of the
+     *  king distances, limited to KING_SPAN either way.  This version
+     *  uses breadth-first searches square by square. */
+    void tally(Board board) {
+        computeDistances(board);
+        int[] qw = _queen[0], qb = _queen[1], kw = _king[0], kb = _king[1];
+        _queenDiff = _queenTies = _kingDiff = _kingTies = _kingSum = 0;
+        Arrays.fill(_queenCounts[0], 0);
+        Arrays.fill(_queenCounts[1], 0);
+        for (int s = 0; s < SQUARES; s += 1) {
+            if (board.isBlocked(s)) {
+                continue;
+            }
+            _queenDiff += Integer.signum(qb[s] - qw[s]);
+            _kingDiff += Integer.signum(kb[s] - kw[s]);
+            if (qw[s] == qb[s] && qw[s] != UNREACHED) {
+                _queenTies += 1;
+            }
+            if (kw[s] == kb[s] && kw[s] != UNREACHED) {
+                _kingTies += 1;
+            }
+            _queenCounts[0][qw[s]] += 1;
+            _queenCounts[1][qb[s]] += 1;
+            _kingSum += clampKing(kb[s] - kw[s]);
+        }
+    }
+
+    /** Return DIFF limited to the range -KING_SPAN .. KING_SPAN. */
+    static int clampKing(int diff) {
+        return Math.max(-KING_SPAN, Math.min(KING_SPAN, diff));
+    }
+
+    @Override
+    public Evaluator create() {
+        return new TerritoryEvaluator(_queenTerritory, _kingTerritory,
+                                      _queenPosition, _kingPosition, _tempo);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    /** Fill in the queen and king distances of every square from the
+     *  amazons of each side on BOARD. */
+    void computeDistances(Board board) {
+        for (Piece side : SIDES) {
+            int k = side == WHITE ? 0 : 1;
+            queenDistances(board, side, _queen[k]);
+            kingDistances(board, side, _king[k]);
+        }
+    }
+
+    /** Return the number of queen moves the nearest amazon of SIDE
+     *  needs to reach the square with index SQ, as of the last
+     *  computeDistances or score, or UNREACHED. */
+    int queenDistance(Piece side, int sq) {
+        return _queen[side == WHITE ? 0 : 1][sq];
+    }
+
+    /** Return the number of king moves the nearest amazon of SIDE needs
+     *  to reach the square with index SQ, as of the last
+     *  computeDistances or score, or UNREACHED. */
+    int kingDistance(Piece side, int sq) {
+        return _king[side == WHITE ? 0 : 1][sq];
+    }
+
+    /** Set DIST[s] to the number of queen moves over empty squares that
+     *  the nearest amazon of SIDE on BOARD needs to reach the square
+     *  with index s (UNREACHED if none can). */
+    private void queenDistances(Board board, Piece side, int[] dist) {
+        int tail = start(board, side, dist);
+        for (int head = 0; head < tail; head += 1) {
+            int from = _queue[head], d = dist[from] + 1;
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                for (int to : Square.ray(from, dir)) {
+                    if (board.isBlocked(to)) {
+                        break;
+                    }
+                    if (dist[to] == UNREACHED) {
+                        dist[to] = d;
+                        _queue[tail] = to;
+                        tail += 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Set DIST[s] to the number of king moves over empty squares that
+     *  the nearest amazon of SIDE on BOARD needs to reach the square
+     *  with index s (UNREACHED if none can). */
+    private void kingDistances(Board board, Piece side, int[] dist) {
+        int tail = start(board, side, dist);
+        for (int head = 0; head < tail; head += 1) {
+            int from = _queue[head], d = dist[from] + 1;
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                int[] ray = Square.ray(from, dir);
+                if (ray.length > 0 && !board.isBlocked(ray[0])
+                    && dist[ray[0]] == UNREACHED) {
+                    dist[ray[0]] = d;
+                    _queue[tail] = ray[0];
+                    tail += 1;
+                }
+            }
+        }
+    }
+
+    /** Set every entry of DIST to UNREACHED except those of the
+     *  amazons of SIDE on BOARD, which become 0, and put those amazons
+     *  on _queue.  Returns their number. */
+    private int start(Board board, Piece side, int[] dist) {
+        Arrays.fill(dist, UNREACHED);
+        int tail = 0;
+        long lo = board.maskLo(side), hi = board.maskHi(side);
+        while (lo != 0 || hi != 0) {
+            int s;
+            if (lo != 0) {
+                s = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                s = Board.LO_BITS + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            dist[s] = 0;
+            _queue[tail] = s;
+            tail += 1;
+        }
+        return tail;
+    }
+
+    /** The sides, in the order of the distance arrays. */
+    private static final Piece[] SIDES = { WHITE, BLACK };
+
+    /** Multiplier turning the weighted sum into an integer score. */
+    private static final double SCALE = 10;
+
+    /** King-distance difference at which the king-position term
+     *  saturates. */
+    static final int KING_SPAN = 6;
+
+    /** POWERS[d] is 2^-d, or 0 for d = UNREACHED. */
+    private static final double[] POWERS = new double[UNREACHED + 1];
+
+    static {
+        for (int d = 0; d < UNREACHED; d += 1) {
+            POWERS[d] = Math.pow(2, -d);
+        }
+    }
+
+    /** Term weights (see the class comment). */
+    protected final double
+        _queenTerritory, _kingTerritory, _queenPosition, _kingPosition;
+
+    /** Tie bonus for the side to move. */
+    protected final double _tempo;
+
+    /** Queen distances from White's ([0]) and Black's ([1]) amazons. */
+    protected final int[][] _queen = new int[2][SQUARES];
+
+    /** King distances from White's ([0]) and Black's ([1]) amazons. */
+    protected final int[][] _king = new int[2][SQUARES];
+
+    /** Queue of squares for the breadth-first searches. */
+    private final int[] _queue = new int[SQUARES];
+
+    /** Totals computed by tally (see there). */
+    protected int _queenDiff, _queenTies, _kingDiff, _kingTies, _kingSum;
+
+    /** _queenCounts[k][d] is the number of empty squares at queen
+     *  distance d from White's (k = 0) or Black's (k = 1) amazons, as
+     *  computed by tally.  Entry UNREACHED is not used by score. */
+    protected final int[][] _queenCounts = new int[2][UNREACHED + 1];
+}
@@ -25,6 +25,11 @@ class TextPlayer extends Player {
         return new TextPlayer(piece, controller);
     }
 
+    @Override
+    boolean isManual() {
+        return true;
+    }
+
     @Override
     String myMove() {
         while (true) {
@@ -0,0 +1,208 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A fixed-size hash table of search results, keyed by Board.hashKey().
+ *  Entries live in two parallel long arrays (keys and packed data), so
+ *  the table creates no objects after construction.  Slots are grouped
+ *  in buckets of two: the first slot of a bucket keeps the deepest
+ *  result stored there, and the second always takes the newest result
+ *  that did not displace the first.
+ *
+ *  <p>Several searcher threads may share one table without locking.
+ *  Each slot stores its key XORed with its data, so a slot torn by
+ *  racing stores (key of one entry, data of another) fails the key
+ *  check on probe and reads as a miss.  The statistics are not
+ *  synchronized and are only approximate when the table is shared.
+ *  @author William Tai
+ */
+class TranspositionTable {
+
+    /** Bound type of an entry whose score is exact. */
+    static final int EXACT = 1;
+    /** Bound type of an entry whose score is a lower bound. */
+    static final int LOWER = 2;
+    /** Bound type of an entry whose score is an upper bound. */
+    static final int UPPER = 3;
+
+    /** The result of probe when there is no entry for a key. */
+    static final long MISS = 0;
+
+    /** A table with room for about ENTRIES entries (rounded down to a
+     *  power of two, and at least two). */
+    TranspositionTable(int entries) {
+        this(slots(entries), true);
+    }
+
+    /** A table of SIZE slots, a power of two of at least two, whose
+     *  slots are kept in arrays iff ALLOCATE.  A subclass that keeps
+     *  them elsewhere passes false and overrides storedKey, storedData,
+     *  storeSlot and clear. */
+    TranspositionTable(int size, boolean allocate) {
+        _keys = allocate ? new long[size] : null;
+        _data = allocate ? new long[size] : null;
+        _mask = size - 2;
+    }
+
+    /** Return the number of slots in a table of about ENTRIES
+     *  entries. */
+    static int slots(int entries) {
+        return Integer.highestOneBit(Math.max(entries, 2));
+    }
+
+    /** Return the number of entries the table can hold. */
+    int size() {
+        return _mask + 2;
+    }
+
+    /** Remove all entries and reset the statistics. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, 0);
+        clearStatistics();
+    }
+
+    /** Reset the statistics. */
+    void clearStatistics() {
+        _probes = _hits = _stores = 0;
+    }
+
+    /** File entries under their keys XORed with SALT (initially 0), so
+     *  that results of searches with different settings, which do not
+     *  mix, do not meet in a table that keeps them (see
+     *  MappedTranspositionTable). */
+    void setSalt(long salt) {
+        _salt = salt;
+    }
+
+    /** Return the packed entry for KEY, or MISS if there is none.  Take
+     *  the entry apart with move, depth, bound and score. */
+    long probe(long key) {
+        _probes += 1;
+        key ^= _salt;
+        int slot = bucket(key);
+        for (int i = slot; i < slot + 2; i += 1) {
+            long data = storedData(i);
+            if (data != MISS && (storedKey(i) ^ data) == key) {
+                _hits += 1;
+                return data;
+            }
+        }
+        return MISS;
+    }
+
+    /** Record that searching the position with KEY to DEPTH gave SCORE,
+     *  whose bound type is BOUND (EXACT, LOWER or UPPER), and that the
+     *  best move found was the packed move MOVE (Move.NONE if none). */
+    void store(long key, int depth, int bound, int score, int move) {
+        _stores += 1;
+        key ^= _salt;
+        long data = pack(depth, bound, score, move);
+        int slot = bucket(key);
+        long oldData = storedData(slot), oldKey = storedKey(slot) ^ oldData;
+        if (oldKey == key || depth >= depth(oldData)) {
+            if (oldKey != key) {
+                storeSlot(slot + 1, oldKey ^ oldData, oldData);
+            }
+            storeSlot(slot, key ^ data, data);
+        } else {
+            storeSlot(slot + 1, key ^ data, data);
+        }
+    }
+
+    /** Return the key, XORed with the data, stored in SLOT. */
+    long storedKey(int slot) {
+        return _keys[slot];
+    }
+
+    /** Return the packed data stored in SLOT. */
+    long storedData(int slot) {
+        return _data[slot];
+    }
+
+    /** Store the key XORed with the data, CHECK, and the packed DATA in
+     *  SLOT. */
+    void storeSlot(int slot, long check, long data) {
+        _keys[slot] = check;
+        _data[slot] = data;
+    }
+
+    /** Return the packed best move recorded in ENTRY, or Move.NONE. */
+    static int move(long entry) {
+        return (int) (entry & MOVE_MASK) - 1;
+    }
+
+    /** Return the search depth recorded in ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the bound type recorded in ENTRY. */
+    static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the score recorded in ENTRY. */
+    static int score(long entry) {
+        return (int) (entry >>> SCORE_SHIFT);
+    }
+
+    /** Return the number of probes since the last clear. */
+    long probes() {
+        return _probes;
+    }
+
+    /** Return the number of successful probes since the last clear. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of stores since the last clear. */
+    long stores() {
+        return _stores;
+    }
+
+    /** Return the fraction of probes that found an entry. */
+    double hitRate() {
+        return _probes == 0 ? 0.0 : (double) _hits / _probes;
+    }
+
+    /** Return the first slot of the bucket for KEY. */
+    private int bucket(long key) {
+        return (int) (key ^ (key >>> (Integer.SIZE))) & _mask;
+    }
+
+    /** Return the packed data for an entry with DEPTH, BOUND, SCORE and
+     *  MOVE.  The move is stored biased by one so that Move.NONE fits,
+     *  and BOUND is never 0, so no packed entry equals MISS. */
+    private static long pack(int depth, int bound, int score, int move) {
+        return (long) (move + 1)
+            | ((long) Math.min(depth, DEPTH_MASK) << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) score << SCORE_SHIFT);
+    }
+
+    /** Layout of the packed data: move in bits 0-21, depth in 22-29,
+     *  bound in 30-31, score in 32-63. */
+    private static final int
+        DEPTH_SHIFT = 22, BOUND_SHIFT = 30, SCORE_SHIFT = 32;
+    /** Masks for the fields of the packed data, after shifting. */
+    private static final int
+        DEPTH_MASK = (1 << (BOUND_SHIFT - DEPTH_SHIFT)) - 1,
+        BOUND_MASK = (1 << (SCORE_SHIFT - BOUND_SHIFT)) - 1;
+    /** Mask for the biased move in the packed data. */
+    private static final long MOVE_MASK = (1L << DEPTH_SHIFT) - 1;
+
+    /** Keys of the entries, each XORed with its packed data, or null if
+     *  a subclass keeps them. */
+    private final long[] _keys;
+    /** Packed data of the entries (MISS in empty slots), or null if a
+     *  subclass keeps them. */
+    private final long[] _data;
+    /** XORed with keys before they are used. */
+    private long _salt;
+    /** Mask selecting the first slot of a bucket from a hash. */
+    private final int _mask;
+    /** Statistics since the last clear. */
+    private long _probes, _hits, _stores;
+}
@@ -6,7 +6,16 @@ import static amazons.Piece.*;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToIntFunction;
 import java.util.HashSet;
 import java.util.Arrays;
 import java.util.ArrayList;
@@ -50,6 +59,58 @@ public class UnitTest {
         assertTrue(Square.sq(7, 9).isQueenMove(Square.sq(0, 2)));
     }
 
+    /** Tests packing, parsing and printing of packed moves. */
+    @Test
+    public void testPackedMoves() {
+        int m = Move.parse("d1-d7(g4)");
+        assertEquals(Square.sq("d1").index(), Move.fromIndex(m));
+        assertEquals(Square.sq("d7").index(), Move.toIndex(m));
+        assertEquals(Square.sq("g4").index(), Move.spearIndex(m));
+        assertEquals("d1-d7(g4)", Move.format(m));
+        assertEquals(m, Move.parse("d1 d7 g4"));
+        assertEquals(m, mv("d1-d7(g4)").packed());
+        assertEquals(mv("d1-d7(g4)"), Move.mv(m));
+        assertEquals(Move.NONE, Move.parse("d1-e7(g4)"));
+        assertEquals(Move.NONE, Move.parse("j10-j10(a1)"));
+        int last = Move.pack(99, 99, 99);
+        assertEquals(99, Move.spearIndex(last));
+        assertEquals("j10-j10(j10)", Move.format(last));
+        Board b = new Board();
+        assertTrue(b.isLegal(m));
+        assertFalse(b.isLegal(Move.NONE));
+        assertFalse(b.isLegal(Move.parse("d10-d7(g4)")));
+    }
+
+    /** Tests the precomputed ray and direction tables against direct
+     *  stepping with queenMove. */
+    @Test
+    public void testRayTables() {
+        assertEquals(9, Square.ray(0, 0).length);
+        assertEquals(0, Square.ray(0, 4).length);
+        assertEquals(Square.sq("j10").index(), Square.ray(0, 1)[8]);
+        for (int from = 0; from < 100; from += 1) {
+            Square f = Square.sq(from);
+            int reachable = 0;
+            for (int to = 0; to < 100; to += 1) {
+                int dir = Square.direction(from, to);
+                if (dir >= 0) {
+                    reachable += 1;
+                    int steps = Math.max(Math.abs(f.col() - to % 10),
+                                         Math.abs(f.row() - 1 - to / 10));
+                    assertSame(Square.sq(to), f.queenMove(dir, steps));
+                    assertEquals(steps - 1,
+                                 Long.bitCount(Square.betweenLo(from, to))
+                                 + Long.bitCount(Square.betweenHi(from, to)));
+                }
+            }
+            int rays = 0;
+            for (int dir = 0; dir < Square.DIRECTIONS; dir += 1) {
+                rays += Square.ray(from, dir).length;
+            }
+            assertEquals(rays, reachable);
+        }
+    }
+
     /** Tests toString for initial board state and a smiling board state. :) */
     @Test
     public void testToString() {
@@ -184,6 +245,371 @@ public class UnitTest {
         assertEquals(0, nothing.size());
     }
 
+    /** Tests that generateMoves produces exactly the moves of
+     *  legalMoves, in the same order. */
+    @Test
+    public void testGenerateMoves() {
+        Board b = new Board();
+        int[] buffer = new int[Board.MAX_MOVES];
+        checkGenerateMoves(b, buffer);
+        b.makeMove(mv("d1-d7(g4)"));
+        checkGenerateMoves(b, buffer);
+        buildBoard(b, TESTER);
+        assertEquals(113, b.generateMoves(WHITE, buffer));
+        assertEquals(0, b.generateMoves(BLACK, buffer));
+    }
+
+    /** Check that generateMoves(side, BUFFER) agrees with legalMoves(side)
+     *  on B for both sides. */
+    private void checkGenerateMoves(Board b, int[] buffer) {
+        for (Piece side : new Piece[] { WHITE, BLACK }) {
+            int n = b.generateMoves(side, buffer);
+            Iterator<Move> iter = b.legalMoves(side);
+            for (int i = 0; i < n; i += 1) {
+                assertEquals(iter.next(), Move.mv(buffer[i]));
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    /** Tests that generating moves into a buffer allocates nothing once
+     *  warmed up, as measured by the thread allocation counter. */
+    @Test
+    public void testGenerateMovesAllocation() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        Board b = new Board();
+        int[] buffer = new int[Board.MAX_MOVES];
+        long id = Thread.currentThread().getId();
+        long total = 0;
+        for (int i = 0; i < 20000; i += 1) {
+            total += b.generateMoves(WHITE, buffer);
+        }
+        long overhead = -threads.getThreadAllocatedBytes(id)
+            + threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1000; i += 1) {
+            total += b.generateMoves(BLACK, buffer);
+        }
+        long after = threads.getThreadAllocatedBytes(id);
+        assertTrue(total > 0);
+        assertEquals(overhead, after - before);
+    }
+
+    /** Tests that the incrementally maintained hash key matches a key
+     *  computed from scratch, is restored by undo, and is the same for
+     *  transposed move orders. */
+    @Test
+    public void testHashKey() {
+        Board b = new Board();
+        long initial = b.hashKey();
+        assertEquals(b.computeKey(), initial);
+        b.makeMove(mv("a4-b4(c4)"));
+        b.makeMove(mv("a7-b7(c7)"));
+        b.makeMove(mv("j4-i4(h4)"));
+        long key = b.hashKey();
+        assertEquals(b.computeKey(), key);
+        Board other = new Board();
+        other.makeMove(mv("j4-i4(h4)"));
+        other.makeMove(mv("a7-b7(c7)"));
+        other.makeMove(mv("a4-b4(c4)"));
+        assertEquals(key, other.hashKey());
+        assertEquals(key, new Board(b).hashKey());
+        b.undo();
+        assertNotEquals(key, b.hashKey());
+        b.undo();
+        b.undo();
+        assertEquals(initial, b.hashKey());
+        b.put(SPEAR, Square.sq("e5"));
+        assertEquals(b.computeKey(), b.hashKey());
+        b.put(EMPTY, Square.sq("e5"));
+        assertEquals(initial, b.hashKey());
+    }
+
+    /** Tests storing, probing and replacement in TranspositionTable. */
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1000);
+        assertEquals(512, table.size());
+        long key = 0x123456789L, other = key + 512, third = key + 1024;
+        int move = Move.parse("d1-d7(g4)");
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+        table.store(key, 3, TranspositionTable.LOWER, -17, move);
+        long entry = table.probe(key);
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        assertEquals(-17, TranspositionTable.score(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        table.store(other, 1, TranspositionTable.EXACT, 5, Move.NONE);
+        assertEquals(Move.NONE, TranspositionTable.move(table.probe(other)));
+        table.store(third, 2, TranspositionTable.UPPER, 9, move);
+        assertEquals(3, TranspositionTable.depth(table.probe(key)));
+        assertEquals(TranspositionTable.MISS, table.probe(other));
+        assertEquals(9, TranspositionTable.score(table.probe(third)));
+        table.store(other, 4, TranspositionTable.EXACT, 1, move);
+        assertEquals(4, TranspositionTable.depth(table.probe(other)));
+        assertEquals(3, TranspositionTable.depth(table.probe(key)));
+        assertEquals(TranspositionTable.MISS, table.probe(third));
+        assertEquals(9, table.probes());
+        assertEquals(6, table.hits());
+    }
+
+    /** Tests a MappedTranspositionTable: sharing through its file,
+     *  keeping entries when cleared, salts, torn slots, and setting up
+     *  a file that is not a table. */
+    @Test
+    public void testMappedTranspositionTable() throws IOException {
+        Path file = Files.createTempFile("table", ".bin");
+        try {
+            MappedTranspositionTable table =
+                MappedTranspositionTable.open(file, 1000);
+            assertEquals(512, table.size());
+            assertEquals(16 + 512 * 16, Files.size(file));
+            long key = 0x123456789L;
+            int move = Move.parse("d1-d7(g4)");
+            table.store(key, 3, TranspositionTable.LOWER, -17, move);
+            table.clear();
+            MappedTranspositionTable other =
+                MappedTranspositionTable.open(file, 4);
+            assertEquals(512, other.size());
+            assertEquals(move, TranspositionTable.move(other.probe(key)));
+            other.setSalt(1);
+            assertEquals(TranspositionTable.MISS, other.probe(key));
+            other.store(key, 5, TranspositionTable.EXACT, 2, Move.NONE);
+            assertEquals(3, TranspositionTable.depth(table.probe(key)));
+            table.setSalt(1);
+            assertEquals(5, TranspositionTable.depth(table.probe(key)));
+            for (int i = 0; i < table.size(); i += 1) {
+                long data = table.storedData(i);
+                if (data != TranspositionTable.MISS) {
+                    table.storeSlot(i, table.storedKey(i), data ^ 1L << 40);
+                }
+            }
+            assertEquals(TranspositionTable.MISS, other.probe(key));
+            Files.write(file, new byte[100]);
+            table = MappedTranspositionTable.open(file, 64);
+            assertEquals(64, table.size());
+            assertEquals(TranspositionTable.MISS, table.probe(key));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Tests that a timed search stops near its deadline with a legal
+     *  move, leaving the board as it was. */
+    @Test
+    public void testTimedSearch() {
+        Board b = new Board();
+        AI ai = new AI();
+        long start = System.nanoTime();
+        int move = ai.search(b, AI.MAX_DEPTH, start + 200_000_000L);
+        long elapsed = System.nanoTime() - start;
+        assertTrue(b.isLegal(move));
+        assertTrue(ai.completedDepth() >= 1);
+        assertTrue(elapsed < 1_000_000_000L);
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(0, b.numMoves());
+    }
+
+    /** Tests the distance maps and score of the territory evaluator,
+     *  and searching with it. */
+    @Test
+    public void testTerritoryEvaluator() {
+        Board b = new Board();
+        TerritoryEvaluator eval = new TerritoryEvaluator();
+        eval.computeDistances(b);
+        int d1 = Square.sq("d1").index(), d5 = Square.sq("d5").index(),
+            e3 = Square.sq("e3").index();
+        assertEquals(0, eval.queenDistance(WHITE, d1));
+        assertEquals(1, eval.queenDistance(WHITE, d5));
+        assertEquals(1, eval.queenDistance(BLACK, d5));
+        assertEquals(1, eval.queenDistance(BLACK, e3));
+        assertEquals(1, eval.queenDistance(WHITE, e3));
+        assertEquals(3, eval.kingDistance(WHITE, d5));
+        assertEquals(3, eval.kingDistance(BLACK, d5));
+        int before = eval.score(b);
+        assertTrue(before > 0);
+        int d3 = Square.sq("d3").index();
+        assertEquals(1, eval.queenDistance(WHITE, d3));
+        for (String sq : new String[] { "c1", "c2", "d2", "e2", "e1" }) {
+            b.put(SPEAR, Square.sq(sq));
+        }
+        assertTrue(eval.score(b) < before);
+        assertEquals(2, eval.queenDistance(WHITE, d3));
+        AI ai = new AI();
+        ai.setEvaluator(eval);
+        b.init();
+        assertTrue(b.isLegal(ai.search(b, 2)));
+    }
+
+    /** Tests the bitboard territory evaluator against the scalar one
+     *  over random positions. */
+    @Test
+    public void testBitboardTerritory() {
+        assertSameTallies(new BitboardTerritoryEvaluator());
+    }
+
+    /** Tests that the vectorized territory evaluator (or its scalar
+     *  fallback, without the Vector API) computes the same totals and
+     *  scores as the scalar one. */
+    @Test
+    public void testVectorTerritory() {
+        assertSameTallies(new VectorTerritoryEvaluator());
+    }
+
+    /** Assert that EVALUATOR computes the same totals and scores as a
+     *  plain TerritoryEvaluator on a set of random positions. */
+    private static void assertSameTallies(TerritoryEvaluator evaluator) {
+        TerritoryEvaluator scalar = new TerritoryEvaluator();
+        for (Board b : Benchmark.positions(60, 13)) {
+            scalar.tally(b);
+            evaluator.tally(b);
+            assertEquals(scalar._queenDiff, evaluator._queenDiff);
+            assertEquals(scalar._queenTies, evaluator._queenTies);
+            assertEquals(scalar._kingDiff, evaluator._kingDiff);
+            assertEquals(scalar._kingTies, evaluator._kingTies);
+            assertEquals(scalar._kingSum, evaluator._kingSum);
+            for (int k = 0; k < 2; k += 1) {
+                assertArrayEquals(scalar._queenCounts[k],
+                                  evaluator._queenCounts[k]);
+            }
+            assertEquals(scalar.score(b), evaluator.score(b));
+        }
+    }
+
+    /** Tests that a single-threaded search is repeatable and that a
+     *  search with helper threads finds a legal move and leaves the
+     *  board alone. */
+    @Test
+    public void testParallelSearch() {
+        Board b = new Board();
+        AI one = new AI(), two = new AI();
+        two.setThreads(2);
+        int move = one.search(b, 2);
+        assertEquals(move, new AI().search(b, 2));
+        int parallel = two.search(b, 2);
+        assertTrue(b.isLegal(parallel));
+        assertTrue(two.completedDepth() >= 2);
+        assertTrue(two.nodes() > 0);
+        assertEquals(INIT_BOARD_STATE, b.toString());
+    }
+
+    /** Tests that killer and history ordering reduce the nodes of
+     *  fixed-depth searches. */
+    @Test
+    public void testMoveOrdering() {
+        Board[] boards =
+            Benchmark.laterPositions(Benchmark.positions(10, 61), 40);
+        AI plain = new AI(), ordered = new AI();
+        plain.setMoveOrdering(false);
+        for (Board b : boards) {
+            assertTrue(b.isLegal(ordered.search(b, 2)));
+            plain.search(b, 2);
+        }
+        assertTrue(ordered.nodes() < plain.nodes());
+    }
+
+    /** Tests that a root-splitting search finds a legal move, finds
+     *  a win when there is one, and leaves the board alone. */
+    @Test
+    public void testRootSplitSearch() {
+        AI ai = new AI();
+        ai.setThreads(2);
+        ai.setRootSplit(true);
+        Board b = new Board();
+        assertTrue(b.isLegal(ai.search(b, 2)));
+        assertEquals(2, ai.completedDepth());
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertFindsWin(board -> ai.search(board, 2));
+    }
+
+    /** Tests that searching amazon moves and spear throws as separate
+     *  plies finds legal moves, finds a win when there is one, agrees
+     *  in value with whole-move search, and leaves the board alone. */
+    @Test
+    public void testSplitPlies() {
+        AI ai = new AI();
+        ai.setSplitPlies(true);
+        Board b = new Board();
+        assertTrue(b.isLegal(ai.search(b, 2)));
+        assertEquals(2, ai.completedDepth());
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        int[] amazons = new int[Board.MAX_MOVES],
+            throwsOf = new int[Board.MAX_MOVES];
+        int n = b.generateAmazonMoves(WHITE, amazons), total = 0;
+        for (int i = 0; i < n; i += 1) {
+            total += b.generateThrows(amazons[i], throwsOf);
+        }
+        assertEquals(b.countLegalMoves(WHITE), total);
+        for (Board p : Benchmark.positions(10, 7)) {
+            if (p.winner() == null) {
+                Searcher whole = new Searcher(0, null, new AtomicBoolean()),
+                    split = new Searcher(0, null, new AtomicBoolean());
+                split.setSplitPlies(true);
+                int sense = p.turn() == WHITE ? 1 : -1;
+                assertEquals(whole.score(p, 2, sense, -Searcher.INFTY,
+                                         Searcher.INFTY, Utils.NO_DEADLINE),
+                             split.score(p, 2, sense, -Searcher.INFTY,
+                                         Searcher.INFTY, Utils.NO_DEADLINE));
+            }
+        }
+        assertFindsWin(board -> ai.search(board, 1));
+    }
+
+    /** Tests that a selective search finds legal moves, searches fewer
+     *  nodes than a full-width one, keeps winning moves in its beam,
+     *  and leaves the board alone. */
+    @Test
+    public void testBeamSearch() {
+        AI full = new AI(), beam = new AI();
+        beam.setBeamWidths(4, 2);
+        Board b = Benchmark.positions(1, 5)[0];
+        String before = b.toString();
+        full.search(b, 3);
+        assertTrue(b.isLegal(beam.search(b, 3)));
+        assertEquals(3, beam.completedDepth());
+        assertTrue(beam.nodes() < full.nodes());
+        assertEquals(before, b.toString());
+        AI narrow = new AI();
+        narrow.setBeamWidths(1);
+        assertFindsWin(board -> narrow.search(board, 3));
+    }
+
+    /** Tests that Monte Carlo tree search, with one thread and with
+     *  two, finds legal moves, runs the playouts asked for, finds an
+     *  immediate win, and leaves the board alone. */
+    @Test
+    public void testMonteCarlo() {
+        Board b = new Board();
+        for (int threads = 1; threads <= 2; threads += 1) {
+            MCTSPlayer mcts = new MCTSPlayer();
+            mcts.setThreads(threads);
+            assertTrue(b.isLegal(mcts.search(b, 300)));
+            assertEquals(300, mcts.playouts());
+            assertEquals(300, mcts.rootVisits());
+            assertTrue(mcts.treeSize() > 1 && mcts.treeSize() <= 301);
+            assertEquals(INIT_BOARD_STATE, b.toString());
+        }
+        MCTSPlayer mcts = new MCTSPlayer();
+        assertFindsWin(board -> mcts.search(board, 5000));
+    }
+
+    /** Check that SEARCH, given the position of WINNER after two more
+     *  moves, in which White can win at once, returns a winning move. */
+    private void assertFindsWin(ToIntFunction<Board> search) {
+        Board b = new Board();
+        buildBoard(b, WINNER);
+        b.makeMove(mv("d9-e9(f10)"));
+        b.makeMove(mv("g10-g9(g10)"));
+        b.makeMove(search.applyAsInt(b));
+        assertEquals(WHITE, b.winner());
+    }
+
     @Test
     public void testWinner() {
         Board b = new Board();
@@ -194,6 +620,538 @@ public class UnitTest {
         b.makeMove(mv("g10-g9(g10)"));
         b.makeMove(mv("e9-d9(e9)"));
         assertNotNull(b.winner());
+        assertEquals(WHITE, b.winner());
+    }
+
+    /** Tests the incremental winner test against a direct scan over
+     *  random games, including after undoing moves. */
+    @Test
+    public void testIncrementalWinner() {
+        Random rand = new Random(11);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int game = 0; game < 20; game += 1) {
+            Board b = new Board();
+            while (b.winner() == null) {
+                assertNull(b.scanWinner());
+                int n = b.generateMoves(b.turn(), moves);
+                b.makeMove(moves[rand.nextInt(n)]);
+                if (rand.nextInt(4) == 0) {
+                    b.undo();
+                    assertNull(b.winner());
+                    b.makeMove(moves[rand.nextInt(n)]);
+                }
+                assertSame(b.scanWinner(), b.winner());
+            }
+            assertEquals(b.turn().opponent(), b.winner());
+            assertEquals(b.winner(), new Board(b).winner());
+        }
+    }
+
+    /** Tests the board's regions against flood fills over random
+     *  games, including after undoing moves, and the contested and
+     *  uncontested moves generated from them. */
+    @Test
+    public void testRegions() {
+        Random rand = new Random(14);
+        int[] moves = new int[Board.MAX_MOVES],
+            contested = new int[Board.MAX_MOVES];
+        FillingSolver filler = new FillingSolver();
+        for (int game = 0; game < 40; game += 1) {
+            Board b = new Board();
+            while (b.winner() == null) {
+                int n = b.generateMoves(b.turn(), moves);
+                b.makeMove(moves[rand.nextInt(n)]);
+                if (rand.nextInt(4) == 0) {
+                    for (int k = rand.nextInt(3); k >= 0; k -= 1) {
+                        b.undo();
+                    }
+                    checkRegions(b);
+                    continue;
+                }
+                checkRegions(b);
+                Board copy = new Board(b);
+                checkRegions(copy);
+                if (b.winner() == null) {
+                    n = b.generateMoves(b.turn(), moves);
+                    int k = b.generateContestedMoves(b.turn(), contested);
+                    for (int i = 0; i < k; i += 1) {
+                        assertTrue(b.isLegal(contested[i]));
+                        assertTrue(b.contested(Move.fromIndex(contested[i])));
+                    }
+                    int u = b.generateUncontestedMoves(b.turn(), contested);
+                    assertEquals(n, k + u);
+                    for (int i = 0; i < u; i += 1) {
+                        assertTrue(b.isLegal(contested[i]));
+                        assertFalse(b.contested(Move.fromIndex(contested[i])));
+                    }
+                    if (b.contestedRegions() == 0) {
+                        assertEquals(0, k);
+                    }
+                    int fill = filler.bestMove(b, b.turn());
+                    assertTrue(fill == Move.NONE
+                               || b.isLegal(fill)
+                               && !b.contested(Move.fromIndex(fill)));
+                }
+            }
+        }
+    }
+
+    /** Tests the board's regions against flood fills along random walks
+     *  up and down game trees, as a search makes and undoes moves, so
+     *  that the regions are mostly updated rather than rebuilt.  Only
+     *  some positions are checked, so that several changes of spears
+     *  may be applied at once. */
+    @Test
+    public void testRegionWalks() {
+        Random rand = new Random(7);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int walk = 0; walk < 40; walk += 1) {
+            Board b = new Board();
+            for (int k = 20 + rand.nextInt(40); k > 0 && b.winner() == null;
+                 k -= 1) {
+                b.makeMove(moves[rand.nextInt(b.generateMoves(b.turn(),
+                                                              moves))]);
+            }
+            int root = b.numMoves();
+            for (int step = 0; step < 1000; step += 1) {
+                if (b.numMoves() > root
+                    && (b.winner() != null || rand.nextBoolean())) {
+                    b.undo();
+                } else if (b.winner() == null) {
+                    int n = b.generateMoves(b.turn(), moves);
+                    b.makeMove(moves[rand.nextInt(n)]);
+                }
+                if (rand.nextInt(3) == 0) {
+                    checkRegions(b);
+                }
+            }
+        }
+    }
+
+    /** Check B's regions, territories and contested regions against a
+     *  flood fill. */
+    private static void checkRegions(Board b) {
+        int[] fill = new int[100];
+        Arrays.fill(fill, -1);
+        int[] stack = new int[100];
+        int territoryWhite = 0, territoryBlack = 0, contested = 0;
+        for (int s = 0; s < 100; s += 1) {
+            if (b.get(s) == SPEAR) {
+                assertEquals(-1, b.region(s));
+                continue;
+            }
+            if (fill[s] != -1) {
+                assertEquals(b.region(fill[s]), b.region(s));
+                continue;
+            }
+            int top = 0, empty = 0, white = 0, black = 0;
+            fill[s] = s;
+            stack[top++] = s;
+            while (top > 0) {
+                int sq = stack[--top];
+                assertEquals(b.region(s), b.region(sq));
+                Piece p = b.get(sq);
+                empty += p == EMPTY ? 1 : 0;
+                white += p == WHITE ? 1 : 0;
+                black += p == BLACK ? 1 : 0;
+                for (int dir = 0; dir < 8; dir += 1) {
+                    int[] ray = Square.ray(sq, dir);
+                    if (ray.length > 0 && b.get(ray[0]) != SPEAR
+                        && fill[ray[0]] == -1) {
+                        fill[ray[0]] = s;
+                        stack[top++] = ray[0];
+                    }
+                }
+            }
+            for (int t = 0; t < s; t += 1) {
+                if (fill[t] != -1 && fill[t] != s && fill[t] == t) {
+                    assertNotEquals(b.region(t), b.region(s));
+                }
+            }
+            if (white > 0 && black > 0) {
+                contested += 1;
+            } else if (white > 0) {
+                territoryWhite += empty;
+            } else if (black > 0) {
+                territoryBlack += empty;
+            }
+        }
+        assertEquals(contested, b.contestedRegions());
+        assertEquals(territoryWhite, b.territory(WHITE));
+        assertEquals(territoryBlack, b.territory(BLACK));
+    }
+
+    /** Tests FillingSolver's counts of the moves left, and its moves,
+     *  against an exhaustive search in the small territories of random
+     *  games, some of which are defective. */
+    @Test
+    public void testFillingSolver() {
+        Random rand = new Random(20);
+        int[] moves = new int[Board.MAX_MOVES];
+        FillingSolver solver = new FillingSolver();
+        int checked = 0, defective = 0;
+        for (int game = 0; game < 40; game += 1) {
+            Board b = new Board();
+            while (b.winner() == null) {
+                Piece side = b.turn();
+                if (b.contestedRegions() == 0 && b.territory(side) <= 6) {
+                    int most = mostMoves(b, side);
+                    assertEquals(most, solver.moves(b, side));
+                    assertTrue(solver.exact());
+                    checked += 1;
+                    defective += most < b.territory(side) ? 1 : 0;
+                    int move = solver.bestMove(b);
+                    assertTrue(b.isLegal(move));
+                    b.makeMove(move);
+                    assertEquals(most - 1, mostMoves(b, side));
+                    continue;
+                }
+                int n = b.generateMoves(side, moves);
+                b.makeMove(moves[rand.nextInt(n)]);
+            }
+        }
+        assertTrue(checked > 100);
+        assertTrue(defective > 0);
+    }
+
+    /** Tests a small generated Tablebase against FillingSolver's own
+     *  exact values in the settled positions of random games, and
+     *  writing and mapping it. */
+    @Test
+    public void testTablebase() throws IOException {
+        Tablebase table = Tablebase.generate(6);
+        assertEquals(6, table.squares());
+        Path file = Files.createTempFile("tablebase", ".bin");
+        try {
+            table.write(file);
+            Tablebase mapped = Tablebase.open(file);
+            assertEquals(table.size(), mapped.size());
+            FillingSolver plain = new FillingSolver(),
+                lookup = new FillingSolver();
+            lookup.setTablebase(mapped);
+            Random rand = new Random(23);
+            int[] moves = new int[Board.MAX_MOVES];
+            int found = 0;
+            for (int game = 0; game < 20; game += 1) {
+                Board b = new Board();
+                while (b.winner() == null) {
+                    if (b.contestedRegions() == 0) {
+                        for (Piece side : new Piece[] { WHITE, BLACK }) {
+                            assertEquals(plain.moves(b, side),
+                                         lookup.moves(b, side));
+                        }
+                        found += regionsFound(mapped, b);
+                    }
+                    int n = b.generateMoves(b.turn(), moves);
+                    b.makeMove(moves[rand.nextInt(n)]);
+                }
+            }
+            assertTrue(found > 100);
+            Files.write(file, new byte[64]);
+            try {
+                Tablebase.open(file);
+                fail("opened a file that is not a tablebase");
+            } catch (IOException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Return the number of regions of B holding amazons that are in
+     *  TABLE. */
+    private static int regionsFound(Tablebase table, Board b) {
+        int found = 0;
+        for (int s = 0; s < 100; s += 1) {
+            if (b.get(s) == EMPTY || b.get(s) == SPEAR) {
+                continue;
+            }
+            long[] region = new long[4];
+            for (int t = 0; t < 100; t += 1) {
+                if (b.region(t) == b.region(s)) {
+                    int k = b.get(t) == EMPTY ? 0 : 2;
+                    region[k + t / 64] |= 1L << (t % 64);
+                }
+            }
+            if (table.value(region[0], region[1], region[2], region[3],
+                            new long[2])
+                != Tablebase.UNKNOWN) {
+                found += 1;
+            }
+        }
+        return found;
+    }
+
+    /** Tests Utils.passed and Utils.halfPassed, including searches with
+     *  no deadline. */
+    @Test
+    public void testDeadlines() {
+        long now = System.nanoTime();
+        assertTrue(Utils.passed(now - 1));
+        assertFalse(Utils.passed(now + 60_000_000_000L));
+        assertFalse(Utils.passed(Utils.NO_DEADLINE));
+        assertTrue(Utils.halfPassed(now - 2, now));
+        assertFalse(Utils.halfPassed(now, now + 60_000_000_000L));
+        assertFalse(Utils.halfPassed(now, Utils.NO_DEADLINE));
+        assertFalse(Utils.halfPassed(Long.MIN_VALUE + 1, Utils.NO_DEADLINE));
+        AI ai = new AI();
+        ai.search(new Board(), 2);
+        assertEquals(2, ai.completedDepth());
+    }
+
+    /** Tests perft and divide against the known counts for the initial
+     *  position, in one thread and several, and against counts made with
+     *  legalMoves in random positions. */
+    @Test
+    public void testPerft() {
+        Board b = new Board();
+        assertEquals(1, Perft.perft(b, 0, 1));
+        assertEquals(2176, Perft.perft(b, 1, 1));
+        assertEquals(4307152, Perft.perft(b, 2, 1));
+        assertEquals(4307152, Perft.perft(b, 2, 4));
+        assertEquals(new Board().toString(), b.toString());
+        int[] moves = new int[Board.MAX_MOVES];
+        long[] counts = Perft.divide(b, 2, 1, moves);
+        assertEquals(2176, counts.length);
+        assertTrue(Arrays.equals(counts,
+                                 Perft.divide(b, 2, 3, new int[0])));
+        assertEquals(mv("d1-d2(d3)"), Move.mv(moves[0]));
+        assertEquals(Perft.perft(b, 2, 1), Arrays.stream(counts).sum());
+        Random rand = new Random(25);
+        for (int k = 0; k < 10; k += 1) {
+            Board r = new Board();
+            int plies = rand.nextInt(60);
+            for (int i = 0; i < plies && r.winner() == null; i += 1) {
+                int n = r.generateMoves(r.turn(), moves);
+                r.makeMove(moves[rand.nextInt(n)]);
+            }
+            long expected = 0;
+            for (Move move : Utils.iterable(r.legalMoves())) {
+                r.makeMove(move);
+                for (Move reply : Utils.iterable(r.legalMoves())) {
+                    expected += 1;
+                }
+                r.undo();
+            }
+            assertEquals(expected, Perft.perft(r, 2, 1));
+        }
+    }
+
+    /** Tests that an AI playing a manual opponent ponders on its time,
+     *  that the game goes on normally, and that the AI reports its ponder
+     *  hits when the game is over. */
+    @Test
+    public void testPondering() {
+        ArrayList<String> notes = new ArrayList<>();
+        Reporter reporter = new Reporter() {
+            @Override
+            public void reportError(String fmt, Object... args) {
+                fail(String.format(fmt, args));
+            }
+
+            @Override
+            public void reportNote(String fmt, Object... args) {
+                notes.add(String.format(fmt, args));
+            }
+
+            @Override
+            public void reportMove(Move unused) {
+            }
+        };
+        AI auto = new AI();
+        auto.setPondering(true);
+        new Controller(new NullView(), null, reporter,
+                       new ScriptedPlayer(null, null), auto).play();
+        assertEquals(1, notes.size());
+        assertTrue(notes.get(0),
+                   notes.get(0).matches("Ponder hits: \\d+ of [1-9]\\d*"
+                                        + " \\(\\d+%\\)\\."));
+    }
+
+    /** A manual Player that sets short time limits, and then makes
+     *  SCRIPTED_MOVES moves chosen by a shallow search, taking THINK_TIME
+     *  milliseconds over each, before quitting. */
+    private static class ScriptedPlayer extends Player {
+
+        /** Moves made before quitting. */
+        static final int SCRIPTED_MOVES = 6;
+
+        /** Milliseconds spent on each move. */
+        static final long THINK_TIME = 100;
+
+        /** A ScriptedPlayer playing PIECE under control of CONTROLLER. */
+        ScriptedPlayer(Piece piece, Controller controller) {
+            super(piece, controller);
+        }
+
+        @Override
+        Player create(Piece piece, Controller controller) {
+            return new ScriptedPlayer(piece, controller);
+        }
+
+        @Override
+        boolean isManual() {
+            return true;
+        }
+
+        @Override
+        String myMove() {
+            if (!_timed) {
+                _timed = true;
+                return "time 0.1 10";
+            } else if (board().winner() != null
+                       || _moves == SCRIPTED_MOVES) {
+                return "quit";
+            }
+            try {
+                Thread.sleep(THINK_TIME);
+            } catch (InterruptedException excp) {
+                fail("interrupted");
+            }
+            _moves += 1;
+            return Move.format(_mind.search(new Board(board()), 1));
+        }
+
+        /** True once I have set the time limits. */
+        private boolean _timed;
+
+        /** Moves made so far. */
+        private int _moves;
+
+        /** Chooses my moves. */
+        private final AI _mind = new AI();
+    }
+
+    /** Return the most moves SIDE can make in a row on B, found by
+     *  trying them all.  B is restored when done. */
+    private static int mostMoves(Board b, Piece side) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.generateMoves(side, moves), most = 0;
+        for (int i = 0; i < n; i += 1) {
+            Square from = Square.sq(Move.fromIndex(moves[i])),
+                to = Square.sq(Move.toIndex(moves[i])),
+                spear = Square.sq(Move.spearIndex(moves[i]));
+            b.put(EMPTY, from);
+            b.put(side, to);
+            b.put(SPEAR, spear);
+            most = Math.max(most, 1 + mostMoves(b, side));
+            b.put(EMPTY, spear);
+            b.put(EMPTY, to);
+            b.put(side, from);
+        }
+        return most;
+    }
+
+    /** Tests building, writing, mapping and probing an opening book,
+     *  from both packed games and a game log. */
+    @Test
+    public void testOpeningBook() throws IOException {
+        int a = Move.parse("d1-d7(g4)"), b = Move.parse("g1-g7(d4)"),
+            reply = Move.parse("a7-b7(c7)"), other = Move.parse("j7-i7(h7)");
+        OpeningBook.Builder builder = new OpeningBook.Builder();
+        builder.addGame(new int[] { a, reply }, WHITE);
+        builder.addGame(new int[] { a, reply }, WHITE);
+        builder.addGame(new int[] { a, other }, BLACK);
+        builder.addGame(new int[] { b, reply }, BLACK);
+        builder.addGame(new int[] { b, reply }, BLACK);
+        assertEquals(5, builder.size());
+        Path file = Files.createTempFile("book", ".bin");
+        try {
+            builder.write(file);
+            assertEquals(OpeningBook.HEADER_BYTES
+                         + 5 * OpeningBook.RECORD_BYTES, Files.size(file));
+            OpeningBook book = OpeningBook.open(file);
+            assertEquals(5, book.size());
+            Board board = new Board();
+            assertEquals(a, book.probe(board));
+            board.makeMove(a);
+            assertEquals(reply, book.probe(board));
+            board.makeMove(reply);
+            assertEquals(Move.NONE, book.probe(board));
+
+            builder = new OpeningBook.Builder();
+            String log = "seed 5\nauto white\n" + Move.format(a)
+                + "\nbad-move\nundo\n" + Move.format(b) + "\nnew\n";
+            builder.addLog(new BufferedReader(new StringReader(log)));
+            assertEquals(0, builder.games());
+            Random rand = new Random(21);
+            int[] moves = new int[Board.MAX_MOVES];
+            StringBuilder game = new StringBuilder();
+            board = new Board();
+            while (board.winner() == null) {
+                int n = board.generateMoves(board.turn(), moves);
+                int move = moves[rand.nextInt(n)];
+                game.append(Move.format(move)).append("  # move\n");
+                board.makeMove(move);
+            }
+            builder.addLog(new BufferedReader(
+                new StringReader(game + "new\n" + game)));
+            assertEquals(2, builder.games());
+            assertEquals(OpeningBook.MAX_PLY, builder.size());
+            Files.write(file, new byte[OpeningBook.HEADER_BYTES]);
+            try {
+                OpeningBook.open(file);
+                fail("opened a file that is not a book");
+            } catch (IOException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Tests countLegalMoves and queenReach against generateMoves and
+     *  reachableFrom over random games. */
+    @Test
+    public void testCountLegalMoves() {
+        Random rand = new Random(12);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int game = 0; game < 10; game += 1) {
+            Board b = new Board();
+            while (b.winner() == null) {
+                for (Piece side : new Piece[] { WHITE, BLACK }) {
+                    assertEquals(b.generateMoves(side, moves),
+                                 b.countLegalMoves(side));
+                    int reach = 0;
+                    for (int s = 0; s < 100; s += 1) {
+                        if (b.get(s) == side) {
+                            Iterator<Square> iter =
+                                b.reachableFrom(Square.sq(s), null);
+                            while (iter.hasNext()) {
+                                iter.next();
+                                reach += 1;
+                            }
+                        }
+                    }
+                    assertEquals(reach, b.queenReach(side));
+                }
+                int n = b.generateMoves(b.turn(), moves);
+                b.makeMove(moves[rand.nextInt(n)]);
+            }
+        }
+    }
+
+    /** Tests that undo restores the board, and that copies are
+     *  independent of the original. */
+    @Test
+    public void testMakeUndo() {
+        Board b = new Board();
+        b.makeMove(mv("d1-d7(g4)"));
+        b.makeMove(mv("a7-b7(c7)"));
+        assertEquals(BLACK, b.get(Square.sq("b7")));
+        assertEquals(SPEAR, b.get(Square.sq("g4")));
+        assertEquals(2, b.numMoves());
+        Board copy = new Board(b);
+        b.undo();
+        b.undo();
+        assertEquals(INIT_BOARD_STATE, b.toString());
+        assertEquals(WHITE, b.turn());
+        assertEquals(0, b.numMoves());
+        assertEquals(WHITE, copy.get(Square.sq("d7")));
+        copy.undo();
+        assertEquals(EMPTY, copy.get(Square.sq("b7")));
+        assertEquals(BLACK, copy.get(Square.sq("a7")));
     }
 
 
@@ -28,6 +28,63 @@ class Utils {
         return () -> iterator;
     }
 
+    /** Wait for THREAD to finish, even if interrupted (in which case
+     *  the current thread's interrupt status is set again afterwards). */
+    static void joinQuietly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A deadline that never passes (see passed). */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /** Return true iff DEADLINE, either a value of System.nanoTime() or
+     *  NO_DEADLINE, has passed.  Times are compared by their difference,
+     *  as the values of System.nanoTime() may wrap around. */
+    static boolean passed(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline > 0;
+    }
+
+    /** Return true iff an iteration started at START is unlikely to
+     *  finish before DEADLINE (as for passed), because more than half
+     *  the time from START to DEADLINE has gone by. */
+    static boolean halfPassed(long start, long deadline) {
+        return deadline != NO_DEADLINE
+            && System.nanoTime() - start > (deadline - start) / 2;
+    }
+
+    /** Wait for THREAD to finish, but for at most NANOS nanoseconds,
+     *  even if interrupted (as for joinQuietly(THREAD)). */
+    static void joinQuietly(Thread thread, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        boolean interrupted = false;
+        for (long left = nanos; left > 0 && thread.isAlive();
+             left = deadline - System.nanoTime()) {
+            try {
+                thread.join(left / NANOS_PER_MILLI,
+                            (int) (left % NANOS_PER_MILLI));
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
     /** Return an input stream containing the contents of file NAME in the
      *  directory containing this class.  Throws IOException if no such
      *  file is available.  */
@@ -0,0 +1,121 @@
+package amazons;
+
+import java.util.Arrays;
+
+/** A TerritoryEvaluator whose per-square comparisons run in SIMD lanes,
+ *  using the incubating Vector API (jdk.incubator.vector) when the JVM
+ *  has that module (java --add-modules jdk.incubator.vector) and the
+ *  kernel class VectorTerritoryKernel has been compiled (make vector).
+ *  Otherwise it quietly does the same work in scalar code.  The
+ *  distance maps come from TerritoryEvaluator's breadth-first searches
+ *  either way, and the totals, and so the scores, are the same.
+ *  @author William Tai
+ */
+class VectorTerritoryEvaluator extends TerritoryEvaluator {
+
+    /** My name, as used by Evaluator.named. */
+    static final String NAME = "vector";
+
+    /** The comparison loop of tally, over distance maps.  Implemented
+     *  with the Vector API by VectorTerritoryKernel. */
+    interface Kernel {
+        /** Given the queen distances QW and QB and king distances KW and
+         *  KB of White and Black for each square, and the masks EMPTYLO
+         *  and EMPTYHI of the empty squares (as for Board.maskLo and
+         *  Board.maskHi), set TOTALS[QUEEN_DIFF], TOTALS[QUEEN_TIES],
+         *  TOTALS[KING_DIFF], TOTALS[KING_TIES] and TOTALS[KING_SUM] to
+         *  the corresponding totals of TerritoryEvaluator.tally. */
+        void compare(int[] qw, int[] qb, int[] kw, int[] kb,
+                     long emptyLo, long emptyHi, int[] totals);
+    }
+
+    /** Indices of the totals set by Kernel.compare. */
+    static final int
+        QUEEN_DIFF = 0, QUEEN_TIES = 1, KING_DIFF = 2, KING_TIES = 3,
+        KING_SUM = 4;
+
+    /** An evaluator with the default weights. */
+    VectorTerritoryEvaluator() {
+        super();
+    }
+
+    /** An evaluator with weights QUEENTERRITORY, KINGTERRITORY,
+     *  QUEENPOSITION, KINGPOSITION and TEMPO, as for TerritoryEvaluator. */
+    VectorTerritoryEvaluator(double queenTerritory, double kingTerritory,
+                             double queenPosition, double kingPosition,
+                             double tempo) {
+        super(queenTerritory, kingTerritory, queenPosition, kingPosition,
+              tempo);
+    }
+
+    /** Return true iff the Vector API kernel is in use. */
+    static boolean vectorized() {
+        return KERNEL != null;
+    }
+
+    @Override
+    public Evaluator create() {
+        return new VectorTerritoryEvaluator(_queenTerritory, _kingTerritory,
+                                            _queenPosition, _kingPosition,
+                                            _tempo);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    void tally(Board board) {
+        if (KERNEL == null) {
+            super.tally(board);
+            return;
+        }
+        computeDistances(board);
+        KERNEL.compare(_queen[0], _queen[1], _king[0], _king[1],
+                       ~board.maskLo(Piece.EMPTY), ~board.maskHi(Piece.EMPTY),
+                       _totals);
+        _queenDiff = _totals[QUEEN_DIFF];
+        _queenTies = _totals[QUEEN_TIES];
+        _kingDiff = _totals[KING_DIFF];
+        _kingTies = _totals[KING_TIES];
+        _kingSum = _totals[KING_SUM];
+        int[] qw = _queen[0], qb = _queen[1];
+        int[] countsW = _queenCounts[0], countsB = _queenCounts[1];
+        Arrays.fill(countsW, 0);
+        Arrays.fill(countsB, 0);
+        for (int s = 0; s < SQUARES; s += 1) {
+            if (!board.isBlocked(s)) {
+                countsW[qw[s]] += 1;
+                countsB[qb[s]] += 1;
+            }
+        }
+    }
+
+    /** Return the Vector API kernel, or null if the module or the
+     *  kernel class is missing. */
+    private static Kernel loadKernel() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return null;
+        }
+        try {
+            return (Kernel) Class.forName(KERNEL_CLASS)
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** The module holding the Vector API. */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /** The class implementing Kernel with the Vector API. */
+    private static final String KERNEL_CLASS =
+        "amazons.VectorTerritoryKernel";
+
+    /** The kernel, or null to use scalar code. */
+    private static final Kernel KERNEL = loadKernel();
+
+    /** Totals returned by the kernel. */
+    private final int[] _totals = new int[KING_SUM + 1];
+}
@@ -0,0 +1,92 @@
+package amazons;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static amazons.TerritoryEvaluator.KING_SPAN;
+import static amazons.TerritoryEvaluator.SQUARES;
+import static amazons.TerritoryEvaluator.UNREACHED;
+import static amazons.VectorTerritoryEvaluator.*;
+
+/** The comparison loop of the territory evaluator, written with the
+ *  incubating Vector API.  Compiling and using this class requires
+ *  --add-modules jdk.incubator.vector (see "make vector"); the rest of
+ *  the program does not refer to it directly, and works without it.
+ *  @author William Tai
+ */
+class VectorTerritoryKernel implements VectorTerritoryEvaluator.Kernel {
+
+    @Override
+    public void compare(int[] qw, int[] qb, int[] kw, int[] kb,
+                        long emptyLo, long emptyHi, int[] totals) {
+        IntVector queenDiff = ZERO, queenTies = ZERO, kingDiff = ZERO,
+            kingTies = ZERO, kingSum = ZERO;
+        int s;
+        for (s = 0; s < BOUND; s += LANES) {
+            VectorMask<Integer> empty =
+                VectorMask.fromLong(SPECIES, bits(emptyLo, emptyHi, s));
+            IntVector w = IntVector.fromArray(SPECIES, qw, s),
+                b = IntVector.fromArray(SPECIES, qb, s);
+            queenDiff = queenDiff.add(ONE, w.lt(b).and(empty))
+                .sub(ONE, b.lt(w).and(empty));
+            queenTies = queenTies.add(ONE, w.eq(b).and(w.lt(UNREACHED))
+                                      .and(empty));
+            w = IntVector.fromArray(SPECIES, kw, s);
+            b = IntVector.fromArray(SPECIES, kb, s);
+            kingDiff = kingDiff.add(ONE, w.lt(b).and(empty))
+                .sub(ONE, b.lt(w).and(empty));
+            kingTies = kingTies.add(ONE, w.eq(b).and(w.lt(UNREACHED))
+                                    .and(empty));
+            kingSum = kingSum.add(b.sub(w).max(-KING_SPAN).min(KING_SPAN),
+                                  empty);
+        }
+        totals[QUEEN_DIFF] = queenDiff.reduceLanes(VectorOperators.ADD);
+        totals[QUEEN_TIES] = queenTies.reduceLanes(VectorOperators.ADD);
+        totals[KING_DIFF] = kingDiff.reduceLanes(VectorOperators.ADD);
+        totals[KING_TIES] = kingTies.reduceLanes(VectorOperators.ADD);
+        totals[KING_SUM] = kingSum.reduceLanes(VectorOperators.ADD);
+        for (; s < SQUARES; s += 1) {
+            if (!Board.has(emptyLo, emptyHi, s)) {
+                continue;
+            }
+            totals[QUEEN_DIFF] += Integer.signum(qb[s] - qw[s]);
+            totals[KING_DIFF] += Integer.signum(kb[s] - kw[s]);
+            if (qw[s] == qb[s] && qw[s] != UNREACHED) {
+                totals[QUEEN_TIES] += 1;
+            }
+            if (kw[s] == kb[s] && kw[s] != UNREACHED) {
+                totals[KING_TIES] += 1;
+            }
+            totals[KING_SUM] += TerritoryEvaluator.clampKing(kb[s] - kw[s]);
+        }
+    }
+
+    /** Return bits S .. S + LANES - 1 of the 128-bit mask LO, HI as the
+     *  low bits of a long. */
+    private static long bits(long lo, long hi, int s) {
+        if (s == 0) {
+            return lo;
+        } else if (s < Long.SIZE) {
+            return (lo >>> s) | (hi << (Long.SIZE - s));
+        } else {
+            return hi >>> (s - Long.SIZE);
+        }
+    }
+
+    /** The preferred vector shape for ints on this machine. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /** Number of squares handled per vector operation. */
+    private static final int LANES = SPECIES.length();
+
+    /** Squares below this are handled in full vectors, the rest one at
+     *  a time. */
+    private static final int BOUND = SPECIES.loopBound(SQUARES);
+
+    /** Vectors of zeros and ones. */
+    private static final IntVector
+        ZERO = IntVector.zero(SPECIES), ONE = IntVector.broadcast(SPECIES, 1);
+}